@@ -1,8 +0,0 @@
-public class CommandID {
-
-    public static final int DATA_REQ = 0;
-
-    public static final int DATA_RESP = 1;
-
-    public static final int HEART_BEAT = 2;
-}
@@ -1,12 +0,0 @@
-public class FieldLength {
-
-    public static final int HEADER = 8;
-
-    public static final int TOTAL_LENGTH = 4;
-
-    public static final int COMMAND_ID = 4;
-
-    public static final int TIMESTAMP = 25;
-
-    public static final int DATA = 4;
-}
\ No newline at end of file
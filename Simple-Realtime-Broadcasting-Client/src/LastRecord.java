@@ -0,0 +1,168 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The last record the client has received, kept in memory so a resume needs no disk access, and used to drop the
+ * records received again after a reconnect. The timestamp is kept in the format it was received in and only converted
+ * when the other format is asked for. Only used by the client event loop.
+ */
+public class LastRecord {
+
+    private boolean present;
+
+    /**
+     * The epoch microseconds of the timestamp, valid if `timestampValid` is set
+     */
+    private long timestamp;
+
+    private boolean timestampValid;
+
+    /**
+     * The timestamp as `[yyyy-MM-dd HH:mm:ss.SSS]`, valid if `textValid` is set
+     */
+    private final byte[] timestampText = new byte[FieldLength.TIMESTAMP];
+
+    private boolean textValid;
+
+    private int data;
+
+    /**
+     * The sequence number of the record, or -1 if the server did not send it
+     */
+    private long sequence = -1;
+
+    private final TimestampEncoder timestampEncoder = new TimestampEncoder();
+
+    /**
+     * Take the record from a line of the client data file, a malformed line leaves no record
+     */
+    public void setLine(String line) {
+        String[] parts = line.split("::");
+        this.present = false;
+        if (parts.length != 2 || parts[0].length() != FieldLength.TIMESTAMP) {
+            return;
+        }
+        try {
+            this.data = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        byte[] text = parts[0].getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(text, 0, this.timestampText, 0, FieldLength.TIMESTAMP);
+        this.textValid = true;
+        this.timestampValid = false;
+        this.sequence = -1;
+        this.present = true;
+    }
+
+    /**
+     * Take a record with a timestamp of version 2
+     *
+     * @param sequence the sequence number of the record, or -1 if it is unknown
+     */
+    public void set(long timestamp, int data, long sequence) {
+        this.timestamp = timestamp;
+        this.timestampValid = true;
+        this.textValid = false;
+        this.data = data;
+        this.sequence = sequence;
+        this.present = true;
+    }
+
+    /**
+     * Take a record with the timestamp of version 1 found at `index` of the frame body
+     *
+     * @param sequence as in `set(long, int, long)`
+     */
+    public void set(Frame frame, int index, int data, long sequence) {
+        frame.getBytes(index, this.timestampText, 0, FieldLength.TIMESTAMP);
+        this.textValid = true;
+        this.timestampValid = false;
+        this.data = data;
+        this.sequence = sequence;
+        this.present = true;
+    }
+
+    /**
+     * Forget the sequence number, e.g. when the server replays a history it may have numbered differently
+     */
+    public void clearSequence() {
+        this.sequence = -1;
+    }
+
+    public boolean isPresent() {
+        return this.present;
+    }
+
+    public int getData() {
+        return this.data;
+    }
+
+    /**
+     * @return the sequence number of the record, or -1 if there is no record or its sequence number is unknown
+     */
+    public long getSequence() {
+        return this.present ? this.sequence : -1;
+    }
+
+    /**
+     * @return the epoch microseconds of the timestamp, or 0 if there is no record or it cannot be parsed
+     */
+    public long getTimestamp() {
+        if (!this.present) {
+            return 0;
+        }
+        if (!this.timestampValid) {
+            this.timestamp = Math.max(0, Timestamps.parse(new String(this.timestampText, StandardCharsets.US_ASCII)));
+            this.timestampValid = true;
+        }
+        return this.timestamp;
+    }
+
+    /**
+     * @return whether the record with a timestamp of version 2 was received before, i.e. it is older than the last
+     *         record or equals it. Numbered records are compared by their sequence numbers alone, the timestamp and the
+     *         data only decide if either sequence number is unknown.
+     */
+    public boolean covers(long timestamp, int data, long sequence) {
+        if (!this.present) {
+            return false;
+        }
+        if (this.isNumbered(sequence)) {
+            return sequence <= this.sequence;
+        }
+        long lastTimestamp = this.getTimestamp();
+        return timestamp < lastTimestamp || timestamp == lastTimestamp && data == this.data;
+    }
+
+    /**
+     * @return whether the record with the timestamp of version 1 found at `index` of the frame body was received before,
+     *         decided like `covers(long, int, long)`. The text timestamps are compared byte by byte, which orders them
+     *         by time.
+     */
+    public boolean covers(Frame frame, int index, int data, long sequence) {
+        if (!this.present) {
+            return false;
+        }
+        if (this.isNumbered(sequence)) {
+            return sequence <= this.sequence;
+        }
+        if (!this.textValid) {
+            this.timestampEncoder.encode(this.timestamp, this.timestampText, 0);
+            this.textValid = true;
+        }
+        for (int i = 0; i < FieldLength.TIMESTAMP; i ++) {
+            int difference = (frame.getByte(index + i) & 0xFF) - (this.timestampText[i] & 0xFF);
+            if (difference != 0) {
+                return difference < 0;
+            }
+        }
+        return data == this.data;
+    }
+
+    /**
+     * @return whether both records carry sequence numbers, which are only sent once they were negotiated
+     */
+    private boolean isNumbered(long sequence) {
+        return sequence >= 0 && this.sequence >= 0;
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the received records to the client data file on its own thread, so the selector thread only reads and decodes
+ * msgs. Whatever has queued up is written at once, and the file is flushed at most once per flush interval.
+ */
+public class RecordSink implements Runnable {
+
+    /**
+     * The maximum number of queued msgs, the selector thread waits once the sink falls that far behind
+     */
+    private static final int CAPACITY = 1024;
+
+    /**
+     * The records of one msg each, as lines of the client data file
+     */
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(CAPACITY);
+
+    /**
+     * Reused to drain the queue
+     */
+    private final ArrayList<String> drainedRecords = new ArrayList<>(CAPACITY);
+
+    private final Writer writer;
+
+    private final long flushIntervalMillis;
+
+    /**
+     * Whether the records are printed to the console as well
+     */
+    private final boolean echo;
+
+    /**
+     * Set on shutdown, the sink thread then writes what is left in the queue and stops
+     */
+    private volatile boolean closed;
+
+    private Thread sinkThread;
+
+    public RecordSink(Writer writer, long flushIntervalMillis, boolean echo) {
+        this.writer = writer;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.echo = echo;
+    }
+
+    /**
+     * Start the sink thread, it does not keep the client running
+     */
+    public void start() {
+        this.sinkThread = new Thread(this, "record-sink");
+        this.sinkThread.setDaemon(true);
+        this.sinkThread.start();
+    }
+
+    /**
+     * Queue the records of a msg, waiting while the queue is full
+     *
+     * @param records complete lines of the client data file
+     */
+    public void submit(String records) {
+        try {
+            this.queue.put(records);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            System.err.println("The selector thread was interrupted when queueing records: " + e.getMessage());
+            // re-interrupt
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastFlushMillis = System.currentTimeMillis();
+        boolean dirty = false;
+        while (!this.closed) {
+            String records;
+            try {
+                if (dirty) {
+                    // wait for records, but no longer than the next flush is due
+                    long timeoutMillis = Math.max(0, lastFlushMillis + this.flushIntervalMillis - System.currentTimeMillis());
+                    records = this.queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    // nothing to flush, sleep until records arrive
+                    records = this.queue.take();
+                }
+            } catch (InterruptedException e) {
+                if (this.closed) {
+                    // woken up by `close()`
+                    break;
+                }
+                e.printStackTrace();
+                System.err.println("The record sink thread was interrupted when waiting: " + e.getMessage());
+                // re-interrupt
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // a record polled while closing is written as well
+            int result = StatusCode.SUCCESS;
+            if (records != null) {
+                result = this.write(records);
+                dirty = true;
+            }
+            long now = System.currentTimeMillis();
+            if (result == StatusCode.SUCCESS && dirty && now - lastFlushMillis >= this.flushIntervalMillis) {
+                // group commit everything written since the last flush
+                result = this.flush();
+                lastFlushMillis = now;
+                dirty = false;
+            }
+            if (result == StatusCode.FAIL) {
+                if (this.closed) {
+                    return;
+                }
+                // the shutdown hook must not wait for this thread, which waits for the hook in `System.exit()`
+                this.closed = true;
+                // the records are received again on the next start, since the client resumes from the file
+                System.exit(1);
+            }
+        }
+        this.writeRemaining();
+    }
+
+    /**
+     * Write every record left in the queue and flush the file
+     */
+    private void writeRemaining() {
+        String records;
+        while ((records = this.queue.poll()) != null) {
+            if (this.write(records) == StatusCode.FAIL) {
+                return;
+            }
+        }
+        this.flush();
+    }
+
+    /**
+     * Write the given records and everything else queued so far
+     */
+    private int write(String records) {
+        this.queue.drainTo(this.drainedRecords);
+        try {
+            this.writer.write(records);
+            if (this.echo) {
+                System.out.print(records);
+            }
+            for (String drainedRecord : this.drainedRecords) {
+                this.writer.write(drainedRecord);
+                if (this.echo) {
+                    System.out.print(drainedRecord);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Cannot write to the client data file: " + e.getMessage());
+            return StatusCode.FAIL;
+        } finally {
+            this.drainedRecords.clear();
+        }
+
+        return StatusCode.SUCCESS;
+    }
+
+    private int flush() {
+        try {
+            this.writer.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Cannot flush the client data file: " + e.getMessage());
+            return StatusCode.FAIL;
+        }
+
+        return StatusCode.SUCCESS;
+    }
+
+    /**
+     * Stop the sink and wait until it has written and flushed the queued records. Called on shutdown.
+     */
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.sinkThread == null) {
+            // never started, nothing else writes to the file
+            this.writeRemaining();
+            return;
+        }
+        // wake the sink thread up if it is waiting for records
+        this.sinkThread.interrupt();
+        try {
+            this.sinkThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            System.err.println("Interrupted while waiting for the record sink to stop: " + e.getMessage());
+            // re-interrupt
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,41 +1,173 @@
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 public class SimpleRealtimeBroadcastingClient {
 
+    private InetSocketAddress remoteAddress;
+
+    /**
+     * The connection to the server and its selection key, null while the client waits to reconnect
+     */
     private SocketChannel socketChannel;
 
-    private ByteBuffer inputBuffer;
+    private SelectionKey key;
+
+    /**
+     * Whether the connection is established, not only being connected
+     */
+    private boolean connected;
+
+    /**
+     * The first reconnect is attempted after up to this many milliseconds, every further one waits up to twice as long
+     */
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 50;
+
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 5000;
+
+    /**
+     * The reconnects attempted since a connection was last established, reset once the server answers the hello msg
+     */
+    private int reconnectAttempts;
+
+    private long reconnectNanos;
+
+    private Random random = new Random();
+
+    /**
+     * The last record received, which the data req resumes from
+     */
+    private LastRecord lastRecord = new LastRecord();
+
+    /**
+     * Whether records received before were skipped on the current connection
+     */
+    private boolean skippingRecords;
+
+    /**
+     * Holds the input buffer and drains the complete msgs from it
+     */
+    private FrameDecoder frameDecoder;
 
     private ByteBuffer outputBuffer;
 
+    private FrameEncoder frameEncoder = new FrameEncoder();
+
+    /**
+     * Handles the msgs drained from the input buffer and from the deflated blocks
+     */
+    private final FrameHandler<SimpleRealtimeBroadcastingClient> frameHandler = SimpleRealtimeBroadcastingClient::handle;
+
     private int bufferSize = 1 << 10;
 
+    /**
+     * The number of bytes read from the end of the client data file to find its last record, enough for many records
+     */
+    private static final int TAIL_SIZE = 1 << 12;
+
+    private int inputBufferSize = 1 << 16;
+
+    /**
+     * The largest msg accepted from the server, a deflated block of the largest block size fits into it
+     */
+    private static final int MAX_FRAME_LENGTH = 2 << 20;
+
+    /**
+     * The block size offered for a compressed replay, the server never uses a larger one
+     */
+    private static final int BLOCK_SIZE = 64 << 10;
+
+    /**
+     * The deflate level offered for the replay, from 1 to 9, or 0 to receive it uncompressed. Set with
+     * `-Dsrb.compression.level=0`.
+     */
+    private int compressionLevel = Math.max(0, Math.min(9, Integer.getInteger("srb.compression.level", 6)));
+
+    /**
+     * Inflates the deflated blocks, whose dictionary carries over from one block to the next
+     */
+    private Inflater inflater;
+
+    /**
+     * Reused for the msgs of every deflated block
+     */
+    private ByteBuffer plainBlock;
+
+    /**
+     * Drains the msgs of a deflated block
+     */
+    private FrameDecoder blockDecoder;
+
+    /**
+     * Formats the timestamps of version 2 into the text format of the client data file
+     */
+    private TimestampEncoder timestampEncoder = new TimestampEncoder();
+
+    private byte[] timestampBytes = new byte[FieldLength.TIMESTAMP];
+
     private Selector selector;
 
     private String filePath = "client_data.txt";
 
     private FileWriter fileWriter;
 
-    private void closeTheSocketChannel() {
-        try {
-            this.socketChannel.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println("Cannot close the client socket channel: " + e.getMessage());
-            System.exit(1);
-        }
-    }
+    /**
+     * Writes the received records to the file on its own thread
+     */
+    private RecordSink recordSink;
+
+    /**
+     * The records of the msg being decoded, handed to the record sink at once
+     */
+    private final StringBuilder pendingRecords = new StringBuilder();
+
+    /**
+     * How often the record sink flushes the file, set with `-Dsrb.flushInterval.millis=100`
+     */
+    private long flushIntervalMillis = Math.max(1, Long.getLong("srb.flushInterval.millis", 100));
+
+    /**
+     * Whether the received records are printed to the console as well, set with `-Dsrb.echo=true`
+     */
+    private boolean echo = Boolean.getBoolean("srb.echo");
+
+    /**
+     * The protocol version used by the server, see `ProtocolVersion`
+     */
+    private int protocolVersion = ProtocolVersion.V1;
+
+    /**
+     * The features used by the server, see `Feature`
+     */
+    private int features;
+
+    /**
+     * A heartbeat is due once nothing was sent for this long, well below the idle timeout of the server. Set with
+     * `-Dsrb.heartbeat.millis=4000`.
+     */
+    private long heartbeatIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong("srb.heartbeat.millis", 4000)));
+
+    /**
+     * When the last byte was written, any msg proves the client is alive, not only heartbeats
+     */
+    private long lastSendNanos = System.nanoTime();
+
+    /**
+     * When the next heartbeat is due, a connection which is not established by then is given up
+     */
+    private long nextHeartbeatNanos;
 
     private void closeTheSelector() {
         try {
@@ -48,39 +180,15 @@ public class SimpleRealtimeBroadcastingClient {
     }
 
     public SimpleRealtimeBroadcastingClient(String remoteIP, int remotePort) {
-        try {
-            this.socketChannel = SocketChannel.open(new InetSocketAddress(remoteIP, remotePort));
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println("Cannot open the socket channel.");
-            System.exit(1);
-        }
-        try {
-            this.socketChannel.configureBlocking(false);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println("Cannot set the socket channel to the non-blocking mode: " + e.getMessage());
-            this.closeTheSocketChannel();
-            System.exit(1);
-        }
+        this.remoteAddress = new InetSocketAddress(remoteIP, remotePort);
         try {
             this.selector = Selector.open();
         } catch (IOException e) {
             e.printStackTrace();
             System.err.println("Cannot open the selector: " + e.getMessage());
-            this.closeTheSocketChannel();
-            System.exit(1);
-        }
-        try {
-            this.socketChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT);
-        } catch (ClosedChannelException e) {
-            e.printStackTrace();
-            System.err.println("Cannot open the selector: " + e.getMessage());
-            this.closeTheSelector();
-            this.closeTheSocketChannel();
             System.exit(1);
         }
-        this.inputBuffer = ByteBuffer.allocate(this.bufferSize);
+        this.frameDecoder = new FrameDecoder(this.inputBufferSize, MAX_FRAME_LENGTH);
         this.outputBuffer = ByteBuffer.allocate(this.bufferSize);
         while (true) {
             try {
@@ -93,14 +201,95 @@ public class SimpleRealtimeBroadcastingClient {
                 this.filePath = scanner.nextLine();
             }
         }
+        this.recordSink = new RecordSink(this.fileWriter, this.flushIntervalMillis, this.echo);
+        this.readLastRecord();
+    }
+
+    /**
+     * Start connecting to the server without blocking, the event loop completes the connection
+     */
+    private void connect() {
+        try {
+            this.socketChannel = SocketChannel.open();
+            this.socketChannel.configureBlocking(false);
+            // the attempt is given up if it is not established when the first heartbeat is due
+            this.nextHeartbeatNanos = System.nanoTime() + this.heartbeatIntervalNanos;
+            if (this.socketChannel.connect(this.remoteAddress)) {
+                this.key = this.socketChannel.register(this.selector, SelectionKey.OP_READ);
+                this.connected();
+            } else {
+                this.key = this.socketChannel.register(this.selector, SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot connect to " + this.remoteAddress + ": " + e.getMessage());
+            this.disconnect();
+        }
     }
 
-    void sendDataReq() {
-        // find the last record
-        BufferedReader reader = null;
+    private void finishConnect() {
+        try {
+            if (!this.socketChannel.finishConnect()) {
+                return;
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot connect to " + this.remoteAddress + ": " + e.getMessage());
+            this.disconnect();
+            return;
+        }
+        // OP_WRITE is only of interest while output is pending
+        this.key.interestOps(SelectionKey.OP_READ);
+        this.connected();
+    }
+
+    private void connected() {
+        this.connected = true;
+        this.skippingRecords = false;
+        System.out.println("[" + new Date() + "] " + "Connected to " + this.remoteAddress + ".");
+        // negotiate the protocol, the data req follows the answer of the server
+        if (this.sendHello() == StatusCode.FAIL) {
+            this.disconnect();
+        }
+    }
+
+    /**
+     * Close the connection and forget its state, then schedule a reconnect with a jittered exponential backoff
+     */
+    private void disconnect() {
+        if (this.socketChannel != null) {
+            try {
+                this.socketChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Cannot close the client socket channel: " + e.getMessage());
+            }
+        }
+        this.socketChannel = null;
+        this.key = null;
+        this.connected = false;
+        this.frameDecoder.reset();
+        this.outputBuffer.clear();
+        this.protocolVersion = ProtocolVersion.V1;
+        this.features = 0;
+        if (this.inflater != null) {
+            this.inflater.end();
+            this.inflater = null;
+        }
+        // wait between half and all of the current backoff, so clients do not reconnect in lockstep
+        long maxDelayMillis = Math.min(MAX_RECONNECT_DELAY_MILLIS, MIN_RECONNECT_DELAY_MILLIS << Math.min(this.reconnectAttempts, 16));
+        long delayMillis = maxDelayMillis / 2 + (long) (this.random.nextDouble() * (maxDelayMillis / 2));
+        this.reconnectAttempts ++;
+        this.reconnectNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        System.err.println("[" + new Date() + "] " + "Reconnecting to the server in " + delayMillis + " ms.");
+    }
+
+    /**
+     * Take the last record from the client data file, the only time the file is read
+     */
+    private void readLastRecord() {
+        RandomAccessFile file = null;
         while (true) {
             try {
-                reader = new BufferedReader(new FileReader(this.filePath));
+                file = new RandomAccessFile(this.filePath, "r");
                 break;
             } catch (FileNotFoundException e) {
                 e.printStackTrace();
@@ -109,161 +298,404 @@ public class SimpleRealtimeBroadcastingClient {
                 this.filePath = scanner.nextLine();
             }
         }
-        String currentLine = null;
-        String previousLine = null;
-        try {
-            currentLine = reader.readLine();
-            while (currentLine != null) {
-                previousLine = currentLine;
-                currentLine = reader.readLine();
+        try (RandomAccessFile tailFile = file) {
+            String lastLine = this.readLastLine(tailFile);
+            if (lastLine != null) {
+                this.lastRecord.setLine(lastLine);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.err.println("Cannot read a line from the client data file: " +e.getMessage());
-            this.closeTheSelector();
-            this.closeTheSocketChannel();
             System.exit(1);
         }
-        // parse the last record
-        if (previousLine != null) {
-            // prepare the msg body data
-            String[] parts = previousLine.split("::");
-            String timestamp = parts[0];
-            int data = Integer.parseInt(parts[1]);
-            // encapsulate the msg
-            this.outputBuffer.putInt(FieldLength.HEADER + FieldLength.TIMESTAMP + FieldLength.DATA);
-            this.outputBuffer.putInt(CommandID.DATA_REQ);
-            this.outputBuffer.put(timestamp.getBytes(StandardCharsets.US_ASCII));
-            this.outputBuffer.putInt(data);
-            // switch to the read mode
-            this.outputBuffer.flip();
+    }
+
+    /**
+     * Offer the protocol version and the features this client supports, the server answers with the ones it will use
+     */
+    private int sendHello() {
+        // encapsulate the msg
+        if (this.compressionLevel > 0) {
+            this.frameEncoder.putHello(this.outputBuffer, ProtocolVersion.LATEST, Feature.SUPPORTED, this.compressionLevel, BLOCK_SIZE);
+        } else {
+            this.frameEncoder.putHello(this.outputBuffer, ProtocolVersion.LATEST, Feature.SUPPORTED & ~Feature.COMPRESSED_REPLAY);
+        }
+        // send the msg
+        return this.write();
+    }
+
+    /**
+     * Resume from the last record received, a client without records sends a zero timestamp. The sequence number is
+     * only known for records received since the start of the client.
+     */
+    private int sendDataReq() {
+        // encapsulate the msg
+        if ((this.features & Feature.SEQUENCE_NUMBERS) != 0) {
+            this.frameEncoder.putDataRequest(this.outputBuffer, this.protocolVersion, this.lastRecord.getTimestamp(), this.lastRecord.getData(), this.lastRecord.getSequence());
         } else {
-            byte[] timestamp = new byte[FieldLength.TIMESTAMP];
-            Arrays.fill(timestamp, 0, FieldLength.TIMESTAMP, (byte) 0);
-            byte[] data = new byte[FieldLength.DATA];
-            Arrays.fill(data, 0, FieldLength.DATA, (byte) 0);
-            // encapsulate the msg
-            this.outputBuffer.putInt(FieldLength.HEADER + FieldLength.TIMESTAMP + FieldLength.DATA);
-            this.outputBuffer.putInt(CommandID.DATA_REQ);
-            this.outputBuffer.put(timestamp);
-            this.outputBuffer.put(data);
-            // switch to the read mode
-            this.outputBuffer.flip();
+            this.frameEncoder.putDataRequest(this.outputBuffer, this.protocolVersion, this.lastRecord.getTimestamp(), this.lastRecord.getData());
         }
         // send the req
+        return this.write();
+    }
+
+    /**
+     * Send a heartbeat unless other msgs have been sent within the heartbeat interval, and schedule the next one
+     */
+    private int sendHeartbeat(long now) {
+        if (now - this.lastSendNanos < this.heartbeatIntervalNanos) {
+            // the server has heard from the client recently enough
+            this.nextHeartbeatNanos = this.lastSendNanos + this.heartbeatIntervalNanos;
+            return StatusCode.SUCCESS;
+        }
+        this.nextHeartbeatNanos = now + this.heartbeatIntervalNanos;
+        this.frameEncoder.putHeartBeat(this.outputBuffer);
+        System.out.println("[" + new Date() + "] " + "A heartbeat was sent.");
+
+        return this.write();
+    }
+
+    /**
+     * Write the pending output, and only wait for OP_WRITE while output is left
+     *
+     * @return `StatusCode.FAIL` if the connection is broken
+     */
+    private int write() {
+        // switch to the read mode
+        this.outputBuffer.flip();
         try {
-            socketChannel.write(outputBuffer);
-            // switch to the write mode
-            this.outputBuffer.compact();
+            if (this.socketChannel.write(this.outputBuffer) > 0) {
+                this.lastSendNanos = System.nanoTime();
+            }
         } catch (IOException e) {
-            e.printStackTrace();
             System.err.println("Cannot send data on the client socket channel: " + e.getMessage());
-            this.closeTheSelector();
-            this.closeTheSocketChannel();
+            return StatusCode.FAIL;
+        }
+        boolean pending = this.outputBuffer.hasRemaining();
+        // switch to the write mode
+        this.outputBuffer.compact();
+        this.key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+
+        return StatusCode.SUCCESS;
+    }
+
+    /**
+     * Read the last complete line of the file backwards from its end, so the lookup does not slow down as the file
+     * grows. A trailing incomplete line is ignored.
+     *
+     * @return the last complete line without its line break, or null if there is none
+     */
+    private String readLastLine(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        int tailSize = TAIL_SIZE;
+        while (true) {
+            // read the tail of the file
+            long start = Math.max(0, length - tailSize);
+            byte[] tail = new byte[(int) (length - start)];
+            file.seek(start);
+            file.readFully(tail);
+            // find the line break terminating the last complete line, then the one before it
+            int lineEnd = tail.length - 1;
+            while (lineEnd >= 0 && tail[lineEnd] != '\n') {
+                lineEnd --;
+            }
+            int lineStart = lineEnd - 1;
+            while (lineStart >= 0 && tail[lineStart] != '\n') {
+                lineStart --;
+            }
+            if (lineStart >= 0 || start == 0) {
+                return lineEnd < 0 ? null : new String(tail, lineStart + 1, lineEnd - lineStart - 1, StandardCharsets.US_ASCII);
+            }
+            // the line is longer than the tail
+            tailSize *= 2;
         }
     }
 
     public void launch() {
-        // create a heartbeat sender thread
-        Thread heartbeatSender = new Thread(new HeartBeatSender(this.socketChannel));
-        heartbeatSender.setDaemon(true);
-        heartbeatSender.start();
-        // send the data req confirmation
-        this.sendDataReq();
-        // process received data
+        // create the record sink thread, which writes whatever is still queued on shutdown
+        this.recordSink.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this.recordSink::close));
+        this.connect();
+        // all socket I/O, the heartbeats and the reconnects happen on this thread
         while (true) {
             try {
-                selector.select();
+                // wake up when the next heartbeat or reconnect is due at the latest
+                long deadlineNanos = this.socketChannel == null ? this.reconnectNanos : this.nextHeartbeatNanos;
+                long timeoutNanos = deadlineNanos - System.nanoTime();
+                if (timeoutNanos > 0) {
+                    // round up, a wait truncated to 0 would poll until the last sub-millisecond has passed
+                    selector.select(TimeUnit.NANOSECONDS.toMillis(timeoutNanos + 999_999));
+                } else {
+                    selector.selectNow();
+                }
             } catch (IOException e) {
                 e.printStackTrace();
                 System.err.println("Cannot perform select() operation on the selector: " + e.getMessage());
                 this.closeTheSelector();
-                this.closeTheSocketChannel();
                 System.exit(1);
             }
             Set<SelectionKey> keys = selector.selectedKeys();
             Iterator<SelectionKey> iterator = keys.iterator();
             while (iterator.hasNext()) {
                 SelectionKey key = iterator.next();
-                if (key.isReadable()) {
-                    this.process(key);
+                iterator.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isConnectable()) {
+                    this.finishConnect();
+                    continue;
+                }
+                if (key.isReadable() && this.process() == StatusCode.FAIL) {
+                    this.disconnect();
+                    continue;
+                }
+                // continue sending the pending output
+                if (key.isValid() && key.isWritable() && this.write() == StatusCode.FAIL) {
+                    this.disconnect();
+                }
+            }
+            long now = System.nanoTime();
+            if (this.socketChannel == null) {
+                if (now - this.reconnectNanos >= 0) {
+                    this.connect();
+                }
+            } else if (now - this.nextHeartbeatNanos >= 0) {
+                if (!this.connected) {
+                    System.err.println("Cannot connect to " + this.remoteAddress + ": timed out.");
+                    this.disconnect();
+                } else if (this.sendHeartbeat(now) == StatusCode.FAIL) {
+                    this.disconnect();
                 }
             }
         }
-
     }
 
-    private void process(SelectionKey key) {
-        SocketChannel socket = (SocketChannel) key.channel();
+    /**
+     * Read from the server and handle every complete msg
+     *
+     * @return `StatusCode.FAIL` if the connection is broken
+     */
+    private int process() {
         // perform bulk read
         try {
-            socket.read(inputBuffer);
-            // switch to the read mode
-            inputBuffer.flip();
+            if (this.socketChannel.read(this.frameDecoder.getBuffer()) < 0) {
+                System.err.println("The server closed the connection.");
+                return StatusCode.FAIL;
+            }
         } catch (IOException e) {
-            e.printStackTrace();
             System.err.println("Cannot read from the client socket channel: " +e.getMessage());
-            this.closeTheSocketChannel();
-            this.closeTheSelector();
-            System.exit(1);
+            return StatusCode.FAIL;
         }
-
         // process all tasks in one go
-        while (true) {
-            // test whether header is complete
-            if (inputBuffer.remaining() < FieldLength.HEADER) {
-                // switch to the write mode
-                inputBuffer.compact();
-                return;
+        return this.frameDecoder.decode(this.frameHandler, this);
+    }
+
+    /**
+     * Select the operation by command ID
+     */
+    private int handle(Frame frame) {
+        switch (frame.getCommandID()) {
+            case CommandID.DATA_RESP: {
+                // the sequence number follows the record
+                int recordSize = FieldLength.STATUS_CODE + ProtocolVersion.timestampLength(this.protocolVersion) + FieldLength.DATA;
+                this.saveRecord(frame, 0, this.isSequenced() ? frame.getLong(recordSize) : -1);
+                this.submitRecords();
+                break;
             }
-            // parse the header
-            int totalLength = inputBuffer.getInt();
-            int commandID = inputBuffer.getInt();
-            // test whether the msg body is complete
-            if (inputBuffer.remaining() < totalLength) {
-                // put the header back to the buffer
-                inputBuffer.position(inputBuffer.position() - FieldLength.HEADER);
-                // switch to the write mode
-                inputBuffer.compact();
-                return;
+            case CommandID.DATA_RESP_BATCH: {
+                // the topic id and the sequence number of the first record are followed by records laid out like the
+                // data response msg body
+                int recordSize = FieldLength.STATUS_CODE + ProtocolVersion.timestampLength(this.protocolVersion) + FieldLength.DATA;
+                int offset = FieldLength.TOPIC_ID;
+                long sequence = -1;
+                if (this.isSequenced()) {
+                    sequence = frame.getLong(offset);
+                    offset += FieldLength.SEQUENCE;
+                }
+                for (; offset + recordSize <= frame.getBodyLength(); offset += recordSize) {
+                    this.saveRecord(frame, offset, sequence);
+                    if (sequence >= 0) {
+                        sequence ++;
+                    }
+                }
+                this.submitRecords();
+                break;
+            }
+            case CommandID.DATA_RESP_COMPACT: {
+                // the topic id, the sequence number of the first record and the status code of all records, then the
+                // varint packed records
+                int offset = FieldLength.TOPIC_ID;
+                long sequence = -1;
+                if (this.isSequenced()) {
+                    sequence = frame.getLong(offset);
+                    offset += FieldLength.SEQUENCE;
+                }
+                byte status = frame.getByte(offset);
+                frame.setCursor(offset + FieldLength.STATUS_CODE);
+                long timestamp = 0;
+                while (frame.hasRemaining()) {
+                    // the timestamps are delta encoded from the previous record
+                    timestamp += frame.getVarLong();
+                    int data = (int) frame.getVarLong();
+                    if (frame.isMalformed()) {
+                        // keep the records before the broken varint, the rest is received again after reconnecting
+                        this.submitRecords();
+                        System.err.println("Received a compact data response batch with a malformed varint.");
+                        return StatusCode.FAIL;
+                    }
+                    this.saveRecord(status, timestamp, data, sequence);
+                    if (sequence >= 0) {
+                        sequence ++;
+                    }
+                }
+                this.submitRecords();
+                break;
             }
-            // read the body
-            byte[] body = new byte[totalLength - FieldLength.HEADER];
-            inputBuffer.get(body);
-            // switch to the write mode
-            // select the operation by command ID
-            switch (commandID) {
-                case CommandID.DATA_RESP: {
-                    // parse the timestamp
-                    byte[] timestampBytes = new byte[FieldLength.TIMESTAMP];
-                    System.arraycopy(body, 0, timestampBytes, 0, FieldLength.TIMESTAMP);
-                    String timestamp = new String(timestampBytes, StandardCharsets.US_ASCII);
-                    // parse the data
-                    byte[] dataBytes = new byte[FieldLength.DATA];
-                    System.arraycopy(body, FieldLength.TIMESTAMP, dataBytes, 0, FieldLength.DATA);
-                    int data = ByteBuffer.wrap(dataBytes).getInt();
-                    // write to the file
-                    while (true) {
-                        try {
-                            this.fileWriter.write(timestamp + "::" + data + "\n");
-                            System.out.println(timestamp + "::" + data);
-                            this.fileWriter.flush();
-                            break;
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                            System.err.println("Cannot write to the file. Please assign the location manually: " +e.getMessage());
-                            Scanner scanner = new Scanner(System.in);
-                            this.filePath = scanner.nextLine();
+            case CommandID.DATA_RESP_DEFLATED: {
+                // the length of the msgs in the block, then the deflated msgs
+                int plainLength = frame.getInt(0);
+                if (plainLength > this.plainBlock.capacity()) {
+                    System.err.println("The replayed block of " + plainLength + " bytes exceeds the block size.");
+                    return StatusCode.FAIL;
+                }
+                this.inflater.setInput(frame.getBodyBuffer(FieldLength.PLAIN_LENGTH));
+                this.plainBlock.clear();
+                try {
+                    while (this.plainBlock.position() < plainLength) {
+                        if (this.inflater.inflate(this.plainBlock) == 0 && this.inflater.needsInput()) {
+                            throw new DataFormatException("The block ends after " + this.plainBlock.position() + " of " + plainLength + " bytes.");
                         }
                     }
-                    break;
+                } catch (DataFormatException e) {
+                    e.printStackTrace();
+                    System.err.println("Cannot inflate the replayed block: " + e.getMessage());
+                    return StatusCode.FAIL;
                 }
-                default: {
-                    // should never happen
-                    break;
+                // switch to the read mode
+                this.plainBlock.flip();
+                // the block holds complete msgs
+                if (this.blockDecoder.decode(this.plainBlock, this.frameHandler, this) == StatusCode.FAIL || this.plainBlock.hasRemaining()) {
+                    return StatusCode.FAIL;
                 }
+                break;
+            }
+            case CommandID.HELLO: {
+                this.protocolVersion = frame.getInt(0);
+                this.features = frame.getInt(FieldLength.VERSION);
+                System.out.println("The server uses the protocol version " + this.protocolVersion + " and the features " + this.features + ".");
+                if ((this.features & Feature.COMPRESSED_REPLAY) != 0) {
+                    int levelOffset = FieldLength.VERSION + FieldLength.FEATURES;
+                    int level = frame.getInt(levelOffset);
+                    int blockSize = frame.getInt(levelOffset + FieldLength.COMPRESSION_LEVEL);
+                    System.out.println("The history is replayed in deflated blocks of " + blockSize + " bytes at level " + level + ".");
+                    this.inflater = new Inflater(true);
+                    if (this.plainBlock == null || this.plainBlock.capacity() < blockSize) {
+                        this.plainBlock = ByteBuffer.allocateDirect(blockSize);
+                        this.blockDecoder = new FrameDecoder(blockSize);
+                    }
+                }
+                // the server is back, a later reconnect starts with the shortest backoff again
+                this.reconnectAttempts = 0;
+                // send the data req confirmation
+                return this.sendDataReq();
+            }
+            default: {
+                // should never happen
+                break;
             }
         }
+
+        return StatusCode.SUCCESS;
+    }
+
+    private boolean isSequenced() {
+        return (this.features & Feature.SEQUENCE_NUMBERS) != 0;
+    }
+
+    /**
+     * Add a record laid out like the data response msg body to the records of the current msg
+     *
+     * @param sequence the sequence number of the record, or -1 if the server does not send it
+     */
+    private void saveRecord(Frame frame, int offset, long sequence) {
+        int timestampLength = ProtocolVersion.timestampLength(this.protocolVersion);
+        byte status = frame.getByte(offset);
+        int data = frame.getInt(offset + FieldLength.STATUS_CODE + timestampLength);
+        if (this.protocolVersion >= ProtocolVersion.V2) {
+            this.saveRecord(status, frame.getLong(offset + FieldLength.STATUS_CODE), data, sequence);
+            return;
+        }
+        this.checkStatus(status);
+        if (this.lastRecord.covers(frame, offset + FieldLength.STATUS_CODE, data, sequence)) {
+            this.skipRecord();
+            return;
+        }
+        this.checkSequence(sequence);
+        this.lastRecord.set(frame, offset + FieldLength.STATUS_CODE, data, sequence);
+        // the data file keeps the text format of version 1, which is copied as is
+        frame.appendAscii(offset + FieldLength.STATUS_CODE, timestampLength, this.pendingRecords);
+        this.pendingRecords.append("::").append(data).append('\n');
+    }
+
+    /**
+     * Add a record with a timestamp of version 2 to the records of the current msg
+     *
+     * @param sequence as in `saveRecord(Frame, int, long)`
+     */
+    private void saveRecord(byte status, long timestamp, int data, long sequence) {
+        this.checkStatus(status);
+        if (this.lastRecord.covers(timestamp, data, sequence)) {
+            this.skipRecord();
+            return;
+        }
+        this.checkSequence(sequence);
+        this.lastRecord.set(timestamp, data, sequence);
+        // the data file keeps the text format of version 1
+        this.timestampEncoder.encode(timestamp, this.timestampBytes, 0);
+        for (byte b : this.timestampBytes) {
+            this.pendingRecords.append((char) b);
+        }
+        this.pendingRecords.append("::").append(data).append('\n');
+    }
+
+    /**
+     * Drop a record received before, e.g. when the server replays its whole history after a reconnect
+     */
+    private void skipRecord() {
+        if (!this.skippingRecords) {
+            System.out.println("Skipping the records received before the reconnect.");
+            this.skippingRecords = true;
+        }
+    }
+
+    private void checkStatus(byte status) {
+        if (status == DataStatus.NOT_FOUND) {
+            System.out.println("The last record was not found on the server, receiving all history data.");
+            // the replayed history may be numbered differently
+            this.lastRecord.clearSequence();
+        }
+    }
+
+    /**
+     * Report the records missing between the last record and the given one, e.g. dropped for a slow client
+     */
+    private void checkSequence(long sequence) {
+        long lastSequence = this.lastRecord.getSequence();
+        if (sequence >= 0 && lastSequence >= 0 && sequence > lastSequence + 1) {
+            System.err.println("[" + new Date() + "] " + "Missed the records " + (lastSequence + 1) + " to " + (sequence - 1) + " of the server history.");
+        }
+    }
+
+    /**
+     * Hand the records of a msg to the record sink at once
+     */
+    private void submitRecords() {
+        if (this.pendingRecords.length() == 0) {
+            return;
+        }
+        this.recordSink.submit(this.pendingRecords.toString());
+        this.pendingRecords.setLength(0);
     }
 
     public static void main(String args[]) {
@@ -1,8 +0,0 @@
-public class StatusCode {
-
-    public static final int SUCCESS = 0;
-
-    public static final int FAIL = -1;
-
-    public static final int NOT_COMPLETE = 1;
-}
\ No newline at end of file
@@ -0,0 +1,24 @@
+public class CommandID {
+
+    public static final int DATA_REQ = 0;
+
+    public static final int DATA_RESP = 1;
+
+    public static final int HEART_BEAT = 2;
+
+    public static final int PUBLISH = 3;
+
+    public static final int SUBSCRIBE = 4;
+
+    public static final int UNSUBSCRIBE = 5;
+
+    public static final int SUBSCRIBE_RESP = 6;
+
+    public static final int HELLO = 7;
+
+    public static final int DATA_RESP_BATCH = 8;
+
+    public static final int DATA_RESP_COMPACT = 9;
+
+    public static final int DATA_RESP_DEFLATED = 10;
+}
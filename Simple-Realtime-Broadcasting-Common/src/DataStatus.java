@@ -0,0 +1,14 @@
+/**
+ * The status code field of the data response msg body
+ */
+public class DataStatus {
+
+    /**
+     * The last data sent by the client was not found, all history data follows
+     */
+    public static final byte NOT_FOUND = '0';
+
+    public static final byte HISTORY = '1';
+
+    public static final byte REAL_TIME = '2';
+}
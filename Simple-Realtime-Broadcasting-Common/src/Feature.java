@@ -0,0 +1,33 @@
+/**
+ * The optional protocol features, negotiated with the hello msg as a bit set
+ */
+public class Feature {
+
+    /**
+     * The data is sent in data response batch msgs where possible
+     */
+    public static final int BATCHED_DATA = 1;
+
+    /**
+     * The batches are compact: delta encoded timestamps and varint packed values. Requires batched data and protocol
+     * version 2.
+     */
+    public static final int COMPACT_DATA = 2;
+
+    /**
+     * The history is replayed in deflated blocks, with the compression level and the block size negotiated as well.
+     * Requires batched data.
+     */
+    public static final int COMPRESSED_REPLAY = 4;
+
+    /**
+     * Every record carries its sequence number, the position in the history of its topic, and a data request resumes
+     * from the sequence number of the client's last record
+     */
+    public static final int SEQUENCE_NUMBERS = 8;
+
+    /**
+     * The features the server and the client support
+     */
+    public static final int SUPPORTED = BATCHED_DATA | COMPACT_DATA | COMPRESSED_REPLAY | SEQUENCE_NUMBERS;
+}
@@ -0,0 +1,30 @@
+public class FieldLength {
+
+    public static final int HEADER = 8;
+
+    public static final int TOTAL_LENGTH = 4;
+
+    public static final int COMMAND_ID = 4;
+
+    public static final int STATUS_CODE = 1;
+
+    public static final int TIMESTAMP = 25;
+
+    public static final int DATA = 4;
+
+    public static final int TOPIC_ID = 4;
+
+    public static final int TIMESTAMP_MICROS = 8;
+
+    public static final int VERSION = 4;
+
+    public static final int FEATURES = 4;
+
+    public static final int COMPRESSION_LEVEL = 4;
+
+    public static final int BLOCK_SIZE = 4;
+
+    public static final int PLAIN_LENGTH = 4;
+
+    public static final int SEQUENCE = 8;
+}
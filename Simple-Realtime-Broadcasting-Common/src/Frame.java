@@ -0,0 +1,144 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A flyweight over a msg in the buffer of a `FrameDecoder`, so reading a msg allocates nothing. Every index is
+ * relative to the start of the msg body. A frame is only valid until the frame handler returns.
+ */
+public class Frame {
+
+    /**
+     * The most bytes of a varint, enough for 64 bits
+     */
+    private static final int MAX_VARINT_LENGTH = 10;
+
+    private ByteBuffer buffer;
+
+    /**
+     * The absolute index of the msg body in the buffer
+     */
+    private int bodyOffset;
+
+    private int bodyLength;
+
+    private int commandID;
+
+    /**
+     * The body index of the next varint, see `getVarLong()`
+     */
+    private int cursor;
+
+    /**
+     * Set once a varint ran past the end of the body or was longer than `MAX_VARINT_LENGTH` bytes
+     */
+    private boolean malformed;
+
+    /**
+     * Point the flyweight at the msg starting at `offset`, whose header has been validated
+     */
+    void wrap(ByteBuffer buffer, int offset, int totalLength) {
+        this.buffer = buffer;
+        this.bodyOffset = offset + FieldLength.HEADER;
+        this.bodyLength = totalLength - FieldLength.HEADER;
+        this.commandID = buffer.getInt(offset + FieldLength.TOTAL_LENGTH);
+        this.cursor = 0;
+        this.malformed = false;
+    }
+
+    public int getCommandID() {
+        return this.commandID;
+    }
+
+    public int getBodyLength() {
+        return this.bodyLength;
+    }
+
+    public byte getByte(int index) {
+        return this.buffer.get(this.bodyOffset + index);
+    }
+
+    public int getInt(int index) {
+        return this.buffer.getInt(this.bodyOffset + index);
+    }
+
+    public long getLong(int index) {
+        return this.buffer.getLong(this.bodyOffset + index);
+    }
+
+    /**
+     * Decode an ASCII field into a new string, only meant for rare msgs
+     */
+    public String getAscii(int index, int length) {
+        byte[] bytes = new byte[length];
+        this.buffer.get(this.bodyOffset + index, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Append an ASCII field to `target` without decoding it into a string first
+     */
+    public void appendAscii(int index, int length, StringBuilder target) {
+        for (int i = 0; i < length; i ++) {
+            target.append((char) (this.buffer.get(this.bodyOffset + index + i) & 0xFF));
+        }
+    }
+
+    /**
+     * Copy a field into `target` starting at `offset`
+     */
+    public void getBytes(int index, byte[] target, int offset, int length) {
+        this.buffer.get(this.bodyOffset + index, target, offset, length);
+    }
+
+    /**
+     * Expose the body from `index` to its end as the remaining bytes of the underlying buffer. The position and the
+     * limit of the buffer are restored once the frame handler returns.
+     */
+    public ByteBuffer getBodyBuffer(int index) {
+        this.buffer.limit(this.bodyOffset + this.bodyLength);
+        this.buffer.position(this.bodyOffset + index);
+        return this.buffer;
+    }
+
+    public void setCursor(int index) {
+        this.cursor = index;
+    }
+
+    /**
+     * @return whether varints are left after the cursor
+     */
+    public boolean hasRemaining() {
+        return this.cursor < this.bodyLength;
+    }
+
+    /**
+     * @return whether a varint was incomplete or too long, the frame has to be rejected then
+     */
+    public boolean isMalformed() {
+        return this.malformed;
+    }
+
+    /**
+     * Read the varint at the cursor and move the cursor behind it: 7 bits per byte, least significant first, the high
+     * bit marks that more bytes follow
+     *
+     * @return the value, or 0 with `isMalformed()` set and the cursor at the end of the body if the varint does not end
+     *         within the body and `MAX_VARINT_LENGTH` bytes
+     */
+    public long getVarLong() {
+        long value = 0;
+        int end = Math.min(this.bodyLength, this.cursor + MAX_VARINT_LENGTH);
+        for (int shift = 0; this.cursor < end; shift += 7) {
+            byte b = this.buffer.get(this.bodyOffset + this.cursor ++);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        // nothing after it can be decoded either
+        this.malformed = true;
+        this.cursor = this.bodyLength;
+
+        return 0;
+    }
+}
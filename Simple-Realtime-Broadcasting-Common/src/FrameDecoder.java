@@ -0,0 +1,122 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Drains every complete msg from an input buffer and hands it to a frame handler as a `Frame` flyweight, leaving an
+ * incomplete msg for the next read. The buffer grows once for a msg larger than it, up to the maximum frame length.
+ * A decoder must only be used by one thread.
+ */
+public class FrameDecoder {
+
+    /**
+     * Filled by the socket channel, in the write mode between two `decode()` calls
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The largest total length of a msg, longer ones are rejected
+     */
+    private final int maxFrameLength;
+
+    /**
+     * Reused for every msg
+     */
+    private final Frame frame = new Frame();
+
+    public FrameDecoder(int capacity, int maxFrameLength) {
+        this.buffer = ByteBuffer.allocate(capacity);
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Create a decoder without an input buffer of its own, which only drains the buffers handed to
+     * `decode(ByteBuffer, FrameHandler, Object)`
+     */
+    public FrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * @return the buffer to read into, in the write mode
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Drop everything in the buffer, e.g. the incomplete msg of a broken connection
+     */
+    public void reset() {
+        this.buffer.clear();
+    }
+
+    /**
+     * Hand every complete msg of the buffer to the frame handler, then make room for the next read
+     *
+     * @return `StatusCode.SUCCESS` once no complete msg is left, `StatusCode.NOT_COMPLETE` if the frame handler paused
+     *         at a msg which is kept, or `StatusCode.FAIL` if a msg has an invalid length or the frame handler failed
+     */
+    public <T> int decode(FrameHandler<T> frameHandler, T context) {
+        // switch to the read mode
+        this.buffer.flip();
+        int result = this.decode(this.buffer, frameHandler, context);
+        if (result == StatusCode.FAIL) {
+            return StatusCode.FAIL;
+        }
+        if (result == StatusCode.NOT_COMPLETE) {
+            // the paused msg is complete, so it fits after compacting
+            this.buffer.compact();
+            return StatusCode.NOT_COMPLETE;
+        }
+        if (this.buffer.remaining() >= FieldLength.HEADER && this.buffer.getInt(this.buffer.position()) > this.buffer.capacity()) {
+            // the incomplete msg can never be completed in the buffer, the length has been validated
+            int capacity = (int) Math.min(this.maxFrameLength, Math.max(2L * this.buffer.capacity(), this.buffer.getInt(this.buffer.position())));
+            ByteBuffer grownBuffer = ByteBuffer.allocate(capacity);
+            grownBuffer.put(this.buffer);
+            this.buffer = grownBuffer;
+            return StatusCode.SUCCESS;
+        }
+        // switch to the write mode
+        this.buffer.compact();
+
+        return StatusCode.SUCCESS;
+    }
+
+    /**
+     * Hand every complete msg of a buffer in the read mode to the frame handler. The position of the buffer is left at
+     * the first incomplete msg, or at the msg the frame handler paused at.
+     *
+     * @return `StatusCode.SUCCESS` once no complete msg is left, `StatusCode.NOT_COMPLETE` if the frame handler paused,
+     *         or `StatusCode.FAIL` if a msg has an invalid length or the frame handler failed
+     */
+    public <T> int decode(ByteBuffer source, FrameHandler<T> frameHandler, T context) {
+        int limit = source.limit();
+        while (true) {
+            int offset = source.position();
+            // test whether the msg header is complete
+            if (limit - offset < FieldLength.HEADER) {
+                return StatusCode.SUCCESS;
+            }
+            int totalLength = source.getInt(offset);
+            if (totalLength < FieldLength.HEADER || totalLength > this.maxFrameLength) {
+                System.err.println("Received a msg of invalid length " + totalLength + ".");
+                return StatusCode.FAIL;
+            }
+            // test whether the msg body is complete
+            if (limit - offset < totalLength) {
+                return StatusCode.SUCCESS;
+            }
+            this.frame.wrap(source, offset, totalLength);
+            int result = frameHandler.onFrame(context, this.frame);
+            // the frame handler may have moved the position and the limit
+            source.limit(limit);
+            if (result == StatusCode.NOT_COMPLETE) {
+                source.position(offset);
+                return StatusCode.NOT_COMPLETE;
+            }
+            source.position(offset + totalLength);
+            if (result == StatusCode.FAIL) {
+                return StatusCode.FAIL;
+            }
+        }
+    }
+}
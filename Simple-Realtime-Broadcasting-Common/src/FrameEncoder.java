@@ -0,0 +1,123 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes the control msgs of the protocol into caller-supplied buffers: every method puts a complete msg at the
+ * position of the target, which must have room for it. An encoder must only be used by one thread.
+ */
+public class FrameEncoder {
+
+    private final TimestampEncoder timestampEncoder = new TimestampEncoder();
+
+    private final byte[] timestampBytes = new byte[FieldLength.TIMESTAMP];
+
+    /**
+     * Put a hello msg offering or granting the given protocol version and features
+     */
+    public void putHello(ByteBuffer target, int version, int features) {
+        target.putInt(FieldLength.HEADER + FieldLength.VERSION + FieldLength.FEATURES);
+        target.putInt(CommandID.HELLO);
+        target.putInt(version);
+        target.putInt(features);
+    }
+
+    /**
+     * Put a hello msg with `Feature.COMPRESSED_REPLAY`, followed by the compression level and the block size
+     */
+    public void putHello(ByteBuffer target, int version, int features, int compressionLevel, int blockSize) {
+        target.putInt(FieldLength.HEADER + FieldLength.VERSION + FieldLength.FEATURES + FieldLength.COMPRESSION_LEVEL + FieldLength.BLOCK_SIZE);
+        target.putInt(CommandID.HELLO);
+        target.putInt(version);
+        target.putInt(features);
+        target.putInt(compressionLevel);
+        target.putInt(blockSize);
+    }
+
+    /**
+     * Put a data request msg carrying the client's last record
+     *
+     * @param timestamp the epoch microseconds of the last record, or 0 if the client has none, which is sent as zero
+     *                  bytes in every version
+     */
+    public void putDataRequest(ByteBuffer target, int version, long timestamp, int data) {
+        target.putInt(FieldLength.HEADER + ProtocolVersion.timestampLength(version) + FieldLength.DATA);
+        target.putInt(CommandID.DATA_REQ);
+        this.putTimestamp(target, version, timestamp);
+        target.putInt(data);
+    }
+
+    /**
+     * Put a data request msg with `Feature.SEQUENCE_NUMBERS`, followed by the sequence number of the last record
+     *
+     * @param sequence the sequence number of the last record, or -1 if the client does not know it
+     */
+    public void putDataRequest(ByteBuffer target, int version, long timestamp, int data, long sequence) {
+        target.putInt(FieldLength.HEADER + ProtocolVersion.timestampLength(version) + FieldLength.DATA + FieldLength.SEQUENCE);
+        target.putInt(CommandID.DATA_REQ);
+        this.putTimestamp(target, version, timestamp);
+        target.putInt(data);
+        target.putLong(sequence);
+    }
+
+    /**
+     * Put a subscribe msg carrying the client's last record of the topic
+     *
+     * @param timestamp as in `putDataRequest()`
+     */
+    public void putSubscribe(ByteBuffer target, int version, long timestamp, int data, byte[] topicName) {
+        target.putInt(FieldLength.HEADER + ProtocolVersion.timestampLength(version) + FieldLength.DATA + topicName.length);
+        target.putInt(CommandID.SUBSCRIBE);
+        this.putTimestamp(target, version, timestamp);
+        target.putInt(data);
+        target.put(topicName);
+    }
+
+    /**
+     * Put a subscribe msg with `Feature.SEQUENCE_NUMBERS`, the sequence number of the last record precedes the topic name
+     *
+     * @param sequence as in `putDataRequest()`
+     */
+    public void putSubscribe(ByteBuffer target, int version, long timestamp, int data, long sequence, byte[] topicName) {
+        target.putInt(FieldLength.HEADER + ProtocolVersion.timestampLength(version) + FieldLength.DATA + FieldLength.SEQUENCE + topicName.length);
+        target.putInt(CommandID.SUBSCRIBE);
+        this.putTimestamp(target, version, timestamp);
+        target.putInt(data);
+        target.putLong(sequence);
+        target.put(topicName);
+    }
+
+    /**
+     * Put a subscribe response msg, the topic id is -1 if there is no topic of the given name
+     */
+    public void putSubscribeResponse(ByteBuffer target, int topicId, byte[] topicName) {
+        target.putInt(FieldLength.HEADER + FieldLength.TOPIC_ID + topicName.length);
+        target.putInt(CommandID.SUBSCRIBE_RESP);
+        target.putInt(topicId);
+        target.put(topicName);
+    }
+
+    public void putUnsubscribe(ByteBuffer target, int topicId) {
+        target.putInt(FieldLength.HEADER + FieldLength.TOPIC_ID);
+        target.putInt(CommandID.UNSUBSCRIBE);
+        target.putInt(topicId);
+    }
+
+    public void putHeartBeat(ByteBuffer target) {
+        target.putInt(FieldLength.HEADER);
+        target.putInt(CommandID.HEART_BEAT);
+    }
+
+    private void putTimestamp(ByteBuffer target, int version, long timestamp) {
+        if (version >= ProtocolVersion.V2) {
+            target.putLong(timestamp);
+            return;
+        }
+        if (timestamp == 0) {
+            // no last record
+            Arrays.fill(this.timestampBytes, (byte) 0);
+        } else {
+            this.timestampEncoder.encode(timestamp, this.timestampBytes, 0);
+        }
+        target.put(this.timestampBytes);
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Handles the frames drained by a `FrameDecoder`
+ *
+ * @param <T> the context passed along with every frame, e.g. the session the frames were received from
+ */
+public interface FrameHandler<T> {
+
+    /**
+     * @param frame only valid until the method returns
+     * @return `StatusCode.FAIL` to stop decoding, `StatusCode.NOT_COMPLETE` to stop and hand the same frame over again
+     *         in the next `decode()` call, `StatusCode.SUCCESS` to go on with the next frame
+     */
+    int onFrame(T context, Frame frame);
+}
@@ -0,0 +1,24 @@
+/**
+ * The versions of the wire format, negotiated with the hello msg. Clients which never send a hello msg use V1.
+ */
+public class ProtocolVersion {
+
+    /**
+     * Timestamps are the 25-byte ASCII `[yyyy-MM-dd HH:mm:ss.SSS]`
+     */
+    public static final int V1 = 1;
+
+    /**
+     * Timestamps are 8-byte epoch microseconds
+     */
+    public static final int V2 = 2;
+
+    public static final int LATEST = V2;
+
+    /**
+     * @return the length of the timestamp field in the given version
+     */
+    public static int timestampLength(int version) {
+        return version >= V2 ? FieldLength.TIMESTAMP_MICROS : FieldLength.TIMESTAMP;
+    }
+}
@@ -0,0 +1,46 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes epoch microseconds as the ASCII wire format `[yyyy-MM-dd HH:mm:ss.SSS]` without allocating. The
+ * `[yyyy-MM-dd HH:mm:` prefix is cached for the current minute, the rest is computed arithmetically.
+ * An encoder must only be used by one thread.
+ */
+public class TimestampEncoder {
+
+    private static final int PREFIX_LENGTH = 18;
+
+    private static final long MILLIS_PER_MINUTE = 60_000L;
+
+    private final byte[] prefix = new byte[PREFIX_LENGTH];
+
+    /**
+     * The epoch milliseconds of the start of the cached minute, or -1 if nothing is cached
+     */
+    private long cachedMinuteStart = -1;
+
+    /**
+     * Write the 25-byte timestamp field into `target` starting at `offset`
+     */
+    public void encode(long timestampMicros, byte[] target, int offset) {
+        long timestampMillis = Math.floorDiv(timestampMicros, 1000L);
+        long minuteStart = timestampMillis - Math.floorMod(timestampMillis, MILLIS_PER_MINUTE);
+        if (minuteStart != this.cachedMinuteStart) {
+            // the zone offset is a whole number of minutes, so the prefix only changes once per minute
+            byte[] formatted = Timestamps.format(minuteStart * 1000L).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(formatted, 0, this.prefix, 0, PREFIX_LENGTH);
+            this.cachedMinuteStart = minuteStart;
+        }
+        System.arraycopy(this.prefix, 0, target, offset, PREFIX_LENGTH);
+        int millisOfMinute = (int) (timestampMillis - minuteStart);
+        int seconds = millisOfMinute / 1000;
+        int millis = millisOfMinute % 1000;
+        int position = offset + PREFIX_LENGTH;
+        target[position ++] = (byte) ('0' + seconds / 10);
+        target[position ++] = (byte) ('0' + seconds % 10);
+        target[position ++] = '.';
+        target[position ++] = (byte) ('0' + millis / 100);
+        target[position ++] = (byte) ('0' + millis / 10 % 10);
+        target[position ++] = (byte) ('0' + millis % 10);
+        target[position] = ']';
+    }
+}
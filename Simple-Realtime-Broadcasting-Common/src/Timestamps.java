@@ -0,0 +1,46 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+public class Timestamps {
+
+    /**
+     * The pattern of the timestamp field on the wire and in the client data file, without the surrounding brackets
+     */
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final long MICROS_PER_SECOND = 1_000_000L;
+
+    public static long currentTimeMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * MICROS_PER_SECOND + now.getNano() / 1000;
+    }
+
+    /**
+     * Convert epoch microseconds to the wire format `[yyyy-MM-dd HH:mm:ss.SSS]`
+     */
+    public static String format(long timestampMicros) {
+        Instant instant = Instant.ofEpochSecond(Math.floorDiv(timestampMicros, MICROS_PER_SECOND), Math.floorMod(timestampMicros, MICROS_PER_SECOND) * 1000);
+        return "[" + FORMATTER.format(instant) + "]";
+    }
+
+    /**
+     * Convert the wire format `[yyyy-MM-dd HH:mm:ss.SSS]` to epoch microseconds
+     *
+     * @return the epoch microseconds, or -1 if the timestamp cannot be parsed
+     */
+    public static long parse(String timestamp) {
+        String trimmed = timestamp.trim();
+        if (trimmed.length() < 2 || trimmed.charAt(0) != '[' || trimmed.charAt(trimmed.length() - 1) != ']') {
+            return -1;
+        }
+        try {
+            Instant instant = LocalDateTime.parse(trimmed.substring(1, trimmed.length() - 1), FORMATTER).atZone(ZoneId.systemDefault()).toInstant();
+            return instant.getEpochSecond() * MICROS_PER_SECOND + instant.getNano() / 1000;
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
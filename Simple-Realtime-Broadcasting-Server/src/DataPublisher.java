@@ -0,0 +1,20 @@
+/**
+ * Feeds values into the server. Every published value is timestamped, stored in the history and broadcast to the
+ * clients. Implementations can be called from any thread.
+ */
+public interface DataPublisher {
+
+    /**
+     * Publish a value, waiting while the history cannot take it
+     *
+     * @return the index of the new record
+     */
+    long publish(int data);
+
+    /**
+     * Publish a value unless the history cannot take it right now, for callers which must not block
+     *
+     * @return the index of the new record, or -1 if the value was not published
+     */
+    long tryPublish(int data);
+}
@@ -0,0 +1,47 @@
+/**
+ * When the history journal forces the appended records to the disk
+ */
+public class FsyncPolicy {
+
+    /**
+     * Force every batch as soon as it is appended, the records appended meanwhile form the next batch
+     */
+    public static final int PER_BATCH = 0;
+
+    /**
+     * Force the appended records at most once per interval
+     */
+    public static final int INTERVAL = 1;
+
+    /**
+     * Force the appended records once a given number of them is pending
+     */
+    public static final int RECORDS = 2;
+
+    /**
+     * @return the policy with the given name, or `StatusCode.FAIL` if there is no such policy
+     */
+    public static int parse(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "per-batch":
+                return PER_BATCH;
+            case "interval":
+                return INTERVAL;
+            case "records":
+                return RECORDS;
+            default:
+                return StatusCode.FAIL;
+        }
+    }
+
+    public static String toString(int policy) {
+        switch (policy) {
+            case PER_BATCH:
+                return "per-batch";
+            case INTERVAL:
+                return "interval";
+            default:
+                return "records";
+        }
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves the published records from the ring into the history store and makes them durable in the background. The
+ * generator never waits for the disk; this thread appends everything published since its last pass and forces it
+ * with one call, so the records of many ticks share a single fsync. It is the gating consumer of the ring.
+ */
+public class HistoryJournal implements Runnable {
+
+    /**
+     * How often the write latency statistics are printed
+     */
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    /**
+     * The longest the journal sleeps without looking at the store
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final HistoryStore historyStore;
+
+    private final RecordRing recordRing;
+
+    /**
+     * See `FsyncPolicy`
+     */
+    private final int fsyncPolicy;
+
+    private final long fsyncIntervalNanos;
+
+    private final long fsyncRecords;
+
+    /**
+     * The number of records which have been forced to the disk
+     */
+    private long durableSize;
+
+    private volatile Thread journalThread;
+
+    /**
+     * Cleared by `shutdown()` to stop the journal thread
+     */
+    private volatile boolean running = true;
+
+    /**
+     * The write latency statistics, only updated by the journal thread
+     */
+    private long forceCount;
+
+    private long forcedRecords;
+
+    private long totalForceNanos;
+
+    private long maxForceNanos;
+
+    public HistoryJournal(HistoryStore historyStore, RecordRing recordRing, ServerConfig config) {
+        this.historyStore = historyStore;
+        this.recordRing = recordRing;
+        this.fsyncPolicy = config.getFsyncPolicy();
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getFsyncIntervalMillis());
+        this.fsyncRecords = config.getFsyncRecords();
+        // the records already in the store were either forced on shutdown or repaired on startup
+        this.durableSize = historyStore.size();
+    }
+
+    /**
+     * Tell the journal that records were published to the ring. Called by the generator, it never blocks.
+     */
+    public void recordsPublished() {
+        Thread thread = this.journalThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public String getStatistics() {
+        long averageMicros = this.forceCount == 0 ? 0 : this.totalForceNanos / this.forceCount / 1000;
+        long averageBatch = this.forceCount == 0 ? 0 : this.forcedRecords / this.forceCount;
+        return "policy=" + FsyncPolicy.toString(this.fsyncPolicy) + ", fsyncs=" + this.forceCount + ", records=" + this.forcedRecords + ", avgBatch=" + averageBatch + ", avgLatency=" + averageMicros + "us, maxLatency=" + this.maxForceNanos / 1000 + "us";
+    }
+
+    @Override
+    public void run() {
+        this.journalThread = Thread.currentThread();
+        long lastForceTime = System.nanoTime();
+        long lastReportTime = lastForceTime;
+        while (this.running) {
+            // consume the ring
+            if (this.appendPublishedRecords() == StatusCode.FAIL) {
+                // retry after a while, the generator waits once the ring is full
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                continue;
+            }
+            long now = System.nanoTime();
+            long size = this.historyStore.size();
+            long pending = size - this.durableSize;
+            // decide whether the pending records are due
+            boolean due;
+            long parkNanos;
+            switch (this.fsyncPolicy) {
+                case FsyncPolicy.PER_BATCH: {
+                    due = pending > 0;
+                    parkNanos = MAX_PARK_NANOS;
+                    break;
+                }
+                case FsyncPolicy.INTERVAL: {
+                    long elapsed = now - lastForceTime;
+                    due = pending > 0 && elapsed >= this.fsyncIntervalNanos;
+                    parkNanos = pending > 0 ? Math.max(1, this.fsyncIntervalNanos - elapsed) : MAX_PARK_NANOS;
+                    break;
+                }
+                default: {
+                    due = pending >= this.fsyncRecords;
+                    parkNanos = MAX_PARK_NANOS;
+                    break;
+                }
+            }
+            if (due) {
+                this.force(size);
+                lastForceTime = System.nanoTime();
+                continue;
+            }
+            // print the write latency statistics
+            if (now - lastReportTime >= REPORT_INTERVAL_NANOS) {
+                lastReportTime = now;
+                if (this.forceCount > 0) {
+                    System.out.println("History journal: " + this.getStatistics());
+                }
+            }
+            if (this.historyStore.size() == this.recordRing.getCursor()) {
+                // woken up early by the next published record
+                LockSupport.parkNanos(this, parkNanos);
+            }
+        }
+    }
+
+    /**
+     * Stop the journal thread, append the records left in the ring and force everything to the disk, then close the
+     * store. Called by the shutdown hook of the server.
+     */
+    public void shutdown() {
+        this.running = false;
+        Thread thread = this.journalThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                System.err.println("Interrupted while waiting for the history journal to stop: " + e.getMessage());
+                Thread.currentThread().interrupt();
+            }
+        }
+        // the journal thread has stopped, so the store is not appended to concurrently
+        this.appendPublishedRecords();
+        long size = this.historyStore.size();
+        if (size > this.durableSize) {
+            this.force(size);
+        }
+        this.historyStore.close();
+    }
+
+    /**
+     * Append the records published to the ring since the last call to the store, then release their slots
+     */
+    private int appendPublishedRecords() {
+        long cursor = this.recordRing.getCursor();
+        long sequence = this.historyStore.size();
+        if (sequence == cursor) {
+            return StatusCode.SUCCESS;
+        }
+        try {
+            for (; sequence < cursor; sequence ++) {
+                this.historyStore.append(this.recordRing.getTimestamp(sequence), this.recordRing.getData(sequence));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("An error occurred when attempting to append to the history store: " + e.getMessage());
+            return StatusCode.FAIL;
+        } finally {
+            this.recordRing.release(sequence);
+        }
+
+        return StatusCode.SUCCESS;
+    }
+
+    /**
+     * Force the records in [durableSize, size) to the disk
+     */
+    private void force(long size) {
+        long startTime = System.nanoTime();
+        this.historyStore.force(this.durableSize, size);
+        long latency = System.nanoTime() - startTime;
+        this.forceCount ++;
+        this.forcedRecords += size - this.durableSize;
+        this.totalForceNanos += latency;
+        this.maxForceNanos = Math.max(this.maxForceNanos, latency);
+        this.durableSize = size;
+    }
+}
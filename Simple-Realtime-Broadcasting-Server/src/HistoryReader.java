@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Serves the resume lookups and the replays of a reactor. Records still held by the record ring (the hot tail) are
+ * looked up and encoded in memory, only older ones are read from the history store. Only used by the reactor thread.
+ */
+public class HistoryReader {
+
+    /**
+     * The number of wire frames encoded from the ring at once
+     */
+    private static final int CHUNK_FRAMES = 64;
+
+    private final HistoryStore historyStore;
+
+    private final RecordRing recordRing;
+
+    private final int topicId;
+
+    private final int wireFrameSize;
+
+    private final RecordEncoder recordEncoder = new RecordEncoder();
+
+    /**
+     * The wire frames most recently encoded from the ring. Replays of the same range by several clients share it.
+     */
+    private final ByteBuffer chunk;
+
+    /**
+     * The byte positions of the wire frames in `chunk`
+     */
+    private long chunkStart;
+
+    private long chunkEnd;
+
+    /**
+     * The record read by the last successful `readRecord()` call
+     */
+    private long recordTimestamp;
+
+    private int recordData;
+
+    public HistoryReader(Topic topic) {
+        this.historyStore = topic.getHistoryStore();
+        this.recordRing = topic.getRecordRing();
+        this.topicId = topic.getId();
+        this.wireFrameSize = this.historyStore.getWireFrameSize();
+        this.chunk = ByteBuffer.allocateDirect(CHUNK_FRAMES * this.wireFrameSize);
+    }
+
+    public int getWireFrameSize() {
+        return this.wireFrameSize;
+    }
+
+    /**
+     * @return the number of records which can be replayed, the ring may be ahead of the store
+     */
+    public long size() {
+        return Math.max(this.recordRing.getCursor(), this.historyStore.size());
+    }
+
+    /**
+     * Read a record into `getRecordTimestamp()` and `getRecordData()`, from the ring while it holds the record and from
+     * the store otherwise.
+     *
+     * @return false if the record is in neither, the ring has dropped it while the journal is a full ring behind
+     */
+    public boolean readRecord(long index) {
+        long timestamp = this.recordRing.getTimestamp(index);
+        int data = this.recordRing.getData(index);
+        if (!this.recordRing.isAvailable(index)) {
+            if (index >= this.historyStore.size()) {
+                // the journal has not caught up yet
+                return false;
+            }
+            timestamp = this.historyStore.getTimestamp(index);
+            data = this.historyStore.getData(index);
+        }
+        this.recordTimestamp = timestamp;
+        this.recordData = data;
+
+        return true;
+    }
+
+    public long getRecordTimestamp() {
+        return this.recordTimestamp;
+    }
+
+    public int getRecordData() {
+        return this.recordData;
+    }
+
+    /**
+     * Find the first record whose timestamp lies in [fromTimestamp, toTimestamp) and whose data equals the given one.
+     *
+     * @return the index of the record, or -1 if there is no such record
+     */
+    public long find(long fromTimestamp, long toTimestamp, int data) {
+        long index = this.recordRing.find(fromTimestamp, toTimestamp, data);
+        if (index == -2) {
+            // older than the hot tail
+            index = this.historyStore.find(fromTimestamp, toTimestamp, data);
+        }
+
+        return index;
+    }
+
+    /**
+     * Write the wire frames in [position, limit) to the socket channel, from memory while the ring holds them and
+     * with `transferTo()` from the store otherwise. Stops at the end of a chunk or segment, so callers should loop.
+     *
+     * @param position the byte position of the first byte to write, `index * getWireFrameSize()` for a record
+     * @param limit the byte position after the last byte to write, must not exceed `size() * getWireFrameSize()`
+     * @return the number of bytes written
+     */
+    public long transferWireFrames(long position, long limit, SocketChannel target) throws IOException {
+        long index = position / this.wireFrameSize;
+        if (position < this.chunkStart || position >= this.chunkEnd) {
+            if (!this.encodeChunk(index, (limit + this.wireFrameSize - 1) / this.wireFrameSize)) {
+                // older than the hot tail
+                long storeLimit = Math.min(limit, this.historyStore.size() * this.wireFrameSize);
+                if (storeLimit <= position) {
+                    // the journal has not caught up yet
+                    return 0;
+                }
+                return this.historyStore.transferWireFrames(position, storeLimit, target);
+            }
+        }
+        ByteBuffer frames = this.chunk.duplicate();
+        frames.position((int) (position - this.chunkStart));
+        frames.limit((int) (Math.min(limit, this.chunkEnd) - this.chunkStart));
+
+        return target.write(frames);
+    }
+
+    /**
+     * Encode the records from `fromIndex` up to `toIndex` for a session which cannot be served from the pre-encoded
+     * wire frames, at most `RecordEncoder.MAX_BATCH_RECORDS` of them: into one batch, or into one data response msg
+     * each. The ring is preferred, older records are read from the store. Stops early at a record which the journal
+     * has not stored yet although the ring has dropped it.
+     *
+     * @param target cleared and left in the read mode, it must hold `MAX_BATCH_RECORDS` data response msgs
+     * @param features the negotiated features, see `Feature`
+     * @return the number of encoded records, 0 with an empty target if the record at `fromIndex` cannot be read yet
+     */
+    public int encodeReplay(long fromIndex, long toIndex, ByteBuffer target, int version, int features) {
+        long endIndex = fromIndex + Math.min(RecordEncoder.MAX_BATCH_RECORDS, toIndex - fromIndex);
+        boolean batched = (features & Feature.BATCHED_DATA) != 0;
+        target.clear();
+        if (batched) {
+            this.recordEncoder.startBatch(target, version, features, DataStatus.HISTORY, fromIndex, this.topicId);
+        }
+        long index = fromIndex;
+        while (index < endIndex && this.readRecord(index)) {
+            if (batched) {
+                this.recordEncoder.addToBatch(target, this.recordTimestamp, this.recordData);
+            } else {
+                this.recordEncoder.putDataResponse(target, version, features, DataStatus.HISTORY, this.recordTimestamp, this.recordData, index, this.topicId);
+            }
+            index ++;
+        }
+        if (index == fromIndex) {
+            // nothing to send, not even an empty batch
+            target.clear();
+            target.flip();
+            return 0;
+        }
+        if (batched) {
+            this.recordEncoder.finishBatch(target);
+        }
+        target.flip();
+
+        return (int) (index - fromIndex);
+    }
+
+    /**
+     * Encode the records from `fromIndex` up to `toIndex` into the chunk, as many as fit.
+     *
+     * @return false if the ring no longer holds the record at `fromIndex`
+     */
+    private boolean encodeChunk(long fromIndex, long toIndex) {
+        if (!this.recordRing.isAvailable(fromIndex)) {
+            return false;
+        }
+        int count = (int) Math.min(CHUNK_FRAMES, toIndex - fromIndex);
+        // invalidate the chunk while it is being overwritten
+        this.chunkEnd = this.chunkStart;
+        this.chunk.clear();
+        for (long index = fromIndex; index < fromIndex + count; index ++) {
+            this.recordEncoder.putDataResponse(this.chunk, ProtocolVersion.V1, 0, DataStatus.HISTORY, this.recordRing.getTimestamp(index), this.recordRing.getData(index), index, this.topicId);
+        }
+        // the oldest record is overwritten first, so the rest is intact if it still is
+        if (!this.recordRing.isAvailable(fromIndex)) {
+            return false;
+        }
+        this.chunkStart = fromIndex * this.wireFrameSize;
+        this.chunkEnd = this.chunkStart + (long) count * this.wireFrameSize;
+
+        return true;
+    }
+}
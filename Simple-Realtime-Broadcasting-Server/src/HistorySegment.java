@@ -0,0 +1,202 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+public class HistorySegment {
+
+    /**
+     * The index of the first record stored in this segment
+     */
+    private final long baseIndex;
+
+    /**
+     * The maximum number of records this segment can hold
+     */
+    private final int capacity;
+
+    private final File file;
+
+    private final FileChannel fileChannel;
+
+    /**
+     * The whole segment file mapped into memory. Records are read and written with absolute gets and puts only,
+     * so the buffer can be shared by the appender and the readers without any extra synchronization.
+     */
+    private final MappedByteBuffer mappedBuffer;
+
+    /**
+     * The same records pre-encoded as complete data response msgs with the history status code, so a replay can be
+     * handed to the kernel with `transferTo()`
+     */
+    private final File wireFile;
+
+    private final FileChannel wireFileChannel;
+
+    private final MappedByteBuffer wireBuffer;
+
+    /**
+     * Carried by the wire frames of every topic but the default one
+     */
+    private final int topicId;
+
+    private final int wireFrameSize;
+
+    /**
+     * Only used by the thread appending to this segment
+     */
+    private final TimestampEncoder timestampEncoder = new TimestampEncoder();
+
+    private final byte[] timestampBytes = new byte[FieldLength.TIMESTAMP];
+
+    public HistorySegment(File file, File wireFile, long baseIndex, int capacity, int topicId) throws IOException {
+        this.file = file;
+        this.wireFile = wireFile;
+        this.baseIndex = baseIndex;
+        this.capacity = capacity;
+        this.topicId = topicId;
+        this.wireFrameSize = HistoryStore.wireFrameSize(topicId);
+        this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // mapping beyond the end of the file extends it to the full segment size
+        this.mappedBuffer = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * HistoryStore.RECORD_SIZE);
+        this.wireFileChannel = FileChannel.open(wireFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.wireBuffer = this.wireFileChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * this.wireFrameSize);
+    }
+
+    public long getBaseIndex() {
+        return this.baseIndex;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public File getWireFile() {
+        return this.wireFile;
+    }
+
+    public long getTimestamp(int slot) {
+        return this.mappedBuffer.getLong(slot * HistoryStore.RECORD_SIZE);
+    }
+
+    public int getData(int slot) {
+        return this.mappedBuffer.getInt(slot * HistoryStore.RECORD_SIZE + Long.BYTES);
+    }
+
+    public void putRecord(int slot, long timestamp, int data) {
+        this.putWireFrame(slot, timestamp, data);
+        int offset = slot * HistoryStore.RECORD_SIZE;
+        // write the data first, a non-zero timestamp marks the record as complete
+        this.mappedBuffer.putInt(offset + Long.BYTES, data);
+        this.mappedBuffer.putLong(offset, timestamp);
+    }
+
+    private void putWireFrame(int slot, long timestamp, int data) {
+        int offset = slot * this.wireFrameSize;
+        // write the body and the command ID first, a non-zero total length marks the frame as complete
+        this.wireBuffer.putInt(offset + FieldLength.TOTAL_LENGTH, CommandID.DATA_RESP);
+        this.wireBuffer.put(offset + FieldLength.HEADER, DataStatus.HISTORY);
+        this.timestampEncoder.encode(timestamp, this.timestampBytes, 0);
+        int timestampOffset = offset + FieldLength.HEADER + FieldLength.STATUS_CODE;
+        for (int i = 0; i < FieldLength.TIMESTAMP; i ++) {
+            this.wireBuffer.put(timestampOffset + i, this.timestampBytes[i]);
+        }
+        this.wireBuffer.putInt(timestampOffset + FieldLength.TIMESTAMP, data);
+        if (this.topicId != Topic.DEFAULT_TOPIC_ID) {
+            this.wireBuffer.putInt(timestampOffset + FieldLength.TIMESTAMP + FieldLength.DATA, this.topicId);
+        }
+        this.wireBuffer.putInt(offset, this.wireFrameSize);
+    }
+
+    /**
+     * Make sure every record has its wire frame, e.g. after a crash or for segments written before wire files existed.
+     *
+     * @param recordCount the number of records in this segment
+     */
+    public void repairWireFrames(int recordCount) {
+        // the wire frames are filled from the front as well
+        int low = 0;
+        int high = recordCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.wireBuffer.getInt(middle * this.wireFrameSize) != 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int slot = low; slot < recordCount; slot ++) {
+            this.putWireFrame(slot, this.getTimestamp(slot), this.getData(slot));
+        }
+    }
+
+    /**
+     * Encode the wire frames of all records again and force them to the disk, e.g. when the topic id has changed
+     *
+     * @param recordCount the number of records in this segment
+     */
+    public void rebuildWireFrames(int recordCount) {
+        for (int slot = 0; slot < recordCount; slot ++) {
+            this.putWireFrame(slot, this.getTimestamp(slot), this.getData(slot));
+        }
+        this.wireBuffer.force();
+    }
+
+    /**
+     * Transfer up to `count` bytes of wire frames starting at `offset` directly from the file to the target channel.
+     *
+     * @return the number of bytes transferred, which may be zero for a non-blocking target
+     */
+    public long transferWireFrames(long offset, long count, WritableByteChannel target) throws IOException {
+        return this.wireFileChannel.transferTo(offset, count, target);
+    }
+
+    /**
+     * Count the records written to this segment. The segment is filled from the front, and an unused slot has a zero
+     * timestamp, so the first empty slot can be found with a binary search.
+     */
+    public int countRecords() {
+        int low = 0;
+        int high = this.capacity;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.getTimestamp(middle) != 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    public void force() {
+        this.mappedBuffer.force();
+        this.wireBuffer.force();
+    }
+
+    /**
+     * Force the records and wire frames in the slots [fromSlot, toSlot) to the disk
+     */
+    public void force(int fromSlot, int toSlot) {
+        int count = toSlot - fromSlot;
+        this.mappedBuffer.force(fromSlot * HistoryStore.RECORD_SIZE, count * HistoryStore.RECORD_SIZE);
+        this.wireBuffer.force(fromSlot * this.wireFrameSize, count * this.wireFrameSize);
+    }
+
+    public void close() {
+        try {
+            this.fileChannel.close();
+            this.wireFileChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Cannot close the history segment \"" + this.file + "\": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,341 @@
+import java.io.*;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class HistoryStore {
+
+    /**
+     * One binary record: the epoch time in microseconds (8 bytes) followed by the data (4 bytes)
+     */
+    public static final int RECORD_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * The default number of records stored in a single segment file (12 MB per segment)
+     */
+    public static final int DEFAULT_SEGMENT_CAPACITY = 1 << 20;
+
+    /**
+     * Every `INDEX_INTERVAL`-th record has its timestamp kept in the in-memory sparse index
+     */
+    private static final int INDEX_INTERVAL = 64;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String WIRE_SUFFIX = ".wire";
+
+    /**
+     * Holds the topic id the wire frames were encoded with, as the id follows the order of the configured topics
+     */
+    private static final String TOPIC_ID_FILE_NAME = "topic.id";
+
+    private final File directory;
+
+    private final int segmentCapacity;
+
+    /**
+     * The topic the records belong to, carried by the pre-encoded msgs
+     */
+    private final int topicId;
+
+    private final int wireFrameSize;
+
+    /**
+     * All segments ordered by their base index. The array is replaced (never modified in place) when a new segment
+     * is rolled, so readers always see a consistent snapshot.
+     */
+    private volatile HistorySegment[] segments;
+
+    /**
+     * The timestamp of every `INDEX_INTERVAL`-th record. Written only by the appender before `size` is published.
+     */
+    private volatile long[] sparseIndex;
+
+    /**
+     * The number of records in the store. Readers must never look at a record whose index is not below `size`.
+     */
+    private volatile long size;
+
+    /**
+     * The timestamp of the last appended record, used to keep the store ordered by time
+     */
+    private long lastTimestamp;
+
+    public HistoryStore(String directoryPath) throws IOException {
+        this(directoryPath, Topic.DEFAULT_TOPIC_ID, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    public HistoryStore(String directoryPath, int topicId) throws IOException {
+        this(directoryPath, topicId, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    public HistoryStore(String directoryPath, int topicId, int segmentCapacity) throws IOException {
+        this.directory = new File(directoryPath);
+        this.segmentCapacity = segmentCapacity;
+        this.topicId = topicId;
+        this.wireFrameSize = wireFrameSize(topicId);
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create the history directory \"" + directoryPath + "\"");
+        }
+        this.open();
+    }
+
+    private void open() throws IOException {
+        // find the existing segment files
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            throw new IOException("Cannot list the history directory \"" + this.directory + "\"");
+        }
+        // zero-padded file names sort in the order of their base index
+        Arrays.sort(files);
+        ArrayList<HistorySegment> segmentList = new ArrayList<>();
+        for (File file : files) {
+            long baseIndex = (long) segmentList.size() * this.segmentCapacity;
+            if (!file.getName().equals(this.segmentFileName(baseIndex))) {
+                throw new IOException("The history segment \"" + file + "\" does not follow the previous segment.");
+            }
+            segmentList.add(this.openSegment(baseIndex));
+        }
+        this.segments = segmentList.toArray(new HistorySegment[0]);
+        // only the last segment can be partially filled
+        long recordCount = 0;
+        if (this.segments.length > 0) {
+            HistorySegment lastSegment = this.segments[this.segments.length - 1];
+            recordCount = lastSegment.getBaseIndex() + lastSegment.countRecords();
+        }
+        File topicIdFile = new File(this.directory, TOPIC_ID_FILE_NAME);
+        boolean topicIdChanged = this.readTopicId(topicIdFile) != this.topicId;
+        for (HistorySegment segment : this.segments) {
+            int segmentRecords = (int) Math.min(this.segmentCapacity, recordCount - segment.getBaseIndex());
+            if (topicIdChanged) {
+                // the wire frames carry a stale topic id, or one which is unknown for segments written before
+                segment.rebuildWireFrames(segmentRecords);
+            } else {
+                // fill in the wire frames missing after a crash
+                segment.repairWireFrames(segmentRecords);
+            }
+        }
+        if (topicIdChanged) {
+            if (this.segments.length > 0) {
+                System.out.println("The wire frames of \"" + this.directory + "\" were rebuilt for the topic id " + this.topicId + ".");
+            }
+            // only written once the wire frames are on the disk
+            try (PrintWriter writer = new PrintWriter(new FileWriter(topicIdFile))) {
+                writer.println(this.topicId);
+            }
+        }
+        // rebuild the sparse index
+        long[] index = new long[(int) Math.max(16, recordCount / INDEX_INTERVAL + 1)];
+        for (long i = 0; i < recordCount; i += INDEX_INTERVAL) {
+            index[(int) (i / INDEX_INTERVAL)] = this.getTimestamp(i);
+        }
+        this.sparseIndex = index;
+        this.lastTimestamp = recordCount > 0 ? this.getTimestamp(recordCount - 1) : 0;
+        this.size = recordCount;
+    }
+
+    /**
+     * @return the topic id in the given file, or -1 if there is none
+     */
+    private int readTopicId(File topicIdFile) throws IOException {
+        if (!topicIdFile.isFile()) {
+            return -1;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(topicIdFile))) {
+            String line = reader.readLine();
+            return line == null ? -1 : Integer.parseInt(line.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the length of a pre-encoded data response msg of the given topic, which uses protocol version 1 without features
+     */
+    public static int wireFrameSize(int topicId) {
+        return RecordEncoder.dataResponseSize(ProtocolVersion.V1, 0, topicId);
+    }
+
+    public int getTopicId() {
+        return this.topicId;
+    }
+
+    public int getWireFrameSize() {
+        return this.wireFrameSize;
+    }
+
+    private String segmentFileName(long baseIndex) {
+        return String.format("%020d", baseIndex) + SEGMENT_SUFFIX;
+    }
+
+    private HistorySegment openSegment(long baseIndex) throws IOException {
+        String baseName = String.format("%020d", baseIndex);
+        return new HistorySegment(new File(this.directory, baseName + SEGMENT_SUFFIX), new File(this.directory, baseName + WIRE_SUFFIX), baseIndex, this.segmentCapacity, this.topicId);
+    }
+
+    private HistorySegment segmentOf(long index) {
+        return this.segments[(int) (index / this.segmentCapacity)];
+    }
+
+    public long size() {
+        return this.size;
+    }
+
+    public long getTimestamp(long index) {
+        return this.segmentOf(index).getTimestamp((int) (index % this.segmentCapacity));
+    }
+
+    public int getData(long index) {
+        return this.segmentOf(index).getData((int) (index % this.segmentCapacity));
+    }
+
+    /**
+     * Append a record to the end of the store. Must only be called from a single thread.
+     *
+     * @return the index of the new record
+     */
+    public long append(long timestamp, int data) throws IOException {
+        // keep the store ordered even if the wall clock goes backwards
+        if (timestamp < this.lastTimestamp) {
+            timestamp = this.lastTimestamp;
+        }
+        long index = this.size;
+        int segmentNumber = (int) (index / this.segmentCapacity);
+        HistorySegment[] currentSegments = this.segments;
+        if (segmentNumber == currentSegments.length) {
+            // roll a new segment
+            HistorySegment segment = this.openSegment(index);
+            currentSegments = Arrays.copyOf(currentSegments, currentSegments.length + 1);
+            currentSegments[segmentNumber] = segment;
+            this.segments = currentSegments;
+        }
+        currentSegments[segmentNumber].putRecord((int) (index % this.segmentCapacity), timestamp, data);
+        // update the sparse index
+        if (index % INDEX_INTERVAL == 0) {
+            int position = (int) (index / INDEX_INTERVAL);
+            long[] index2Timestamp = this.sparseIndex;
+            if (position == index2Timestamp.length) {
+                index2Timestamp = Arrays.copyOf(index2Timestamp, index2Timestamp.length << 1);
+            }
+            index2Timestamp[position] = timestamp;
+            this.sparseIndex = index2Timestamp;
+        }
+        this.lastTimestamp = timestamp;
+        // publish the record
+        this.size = index + 1;
+
+        return index;
+    }
+
+    /**
+     * Transfer the pre-encoded data response msgs in [position, limit) of the concatenated wire frames to the target
+     * channel without copying them through the heap. Stops at the end of a segment, so callers should loop.
+     *
+     * @param position the byte position of the first byte to transfer, `index * getWireFrameSize()` for a record
+     * @param limit the byte position after the last byte to transfer, must not exceed `size() * getWireFrameSize()`
+     * @return the number of bytes transferred
+     */
+    public long transferWireFrames(long position, long limit, WritableByteChannel target) throws IOException {
+        long segmentBytes = (long) this.segmentCapacity * this.wireFrameSize;
+        HistorySegment segment = this.segments[(int) (position / segmentBytes)];
+        long offset = position % segmentBytes;
+        long count = Math.min(limit - position, segmentBytes - offset);
+
+        return segment.transferWireFrames(offset, count, target);
+    }
+
+    /**
+     * Find the first record whose timestamp lies in [fromTimestamp, toTimestamp) and whose data equals the given one.
+     *
+     * @return the index of the record, or -1 if there is no such record
+     */
+    public long find(long fromTimestamp, long toTimestamp, int data) {
+        long recordCount = this.size;
+        long[] index2Timestamp = this.sparseIndex;
+        // binary search for the last sparse index entry before `fromTimestamp`
+        int low = 0;
+        int high = (int) ((recordCount + INDEX_INTERVAL - 1) / INDEX_INTERVAL) - 1;
+        int start = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (index2Timestamp[middle] < fromTimestamp) {
+                start = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        // scan at most the records between two index entries plus the matching range
+        for (long i = (long) start * INDEX_INTERVAL; i < recordCount; i ++) {
+            long timestamp = this.getTimestamp(i);
+            if (timestamp >= toTimestamp) {
+                break;
+            }
+            if (timestamp >= fromTimestamp && this.getData(i) == data) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Import the records of the old text data file (`[timestamp]::data` per line) into an empty store.
+     *
+     * @return the number of imported records
+     */
+    public long importTextFile(String filePath) throws IOException {
+        File file = new File(filePath);
+        if (this.size != 0 || !file.isFile()) {
+            return 0;
+        }
+        long imported = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("::");
+                if (parts.length != 2) {
+                    continue;
+                }
+                long timestamp = Timestamps.parse(parts[0]);
+                if (timestamp <= 0) {
+                    continue;
+                }
+                try {
+                    this.append(timestamp, Integer.parseInt(parts[1].trim()));
+                    imported ++;
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipped a malformed line in \"" + filePath + "\": " + line);
+                }
+            }
+        }
+
+        return imported;
+    }
+
+    public void force() {
+        for (HistorySegment segment : this.segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Force the records in [fromIndex, toIndex) to the disk, only touching the segments which hold them
+     */
+    public void force(long fromIndex, long toIndex) {
+        HistorySegment[] currentSegments = this.segments;
+        long index = fromIndex;
+        while (index < toIndex) {
+            HistorySegment segment = currentSegments[(int) (index / this.segmentCapacity)];
+            long segmentEnd = Math.min(toIndex, segment.getBaseIndex() + this.segmentCapacity);
+            segment.force((int) (index - segment.getBaseIndex()), (int) (segmentEnd - segment.getBaseIndex()));
+            index = segmentEnd;
+        }
+    }
+
+    public void close() {
+        for (HistorySegment segment : this.segments) {
+            segment.close();
+        }
+    }
+}
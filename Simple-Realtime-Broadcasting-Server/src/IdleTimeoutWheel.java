@@ -0,0 +1,111 @@
+/**
+ * A hashed timing wheel of idle deadlines. Every session sits in the slot of the tick at which it expires, linked
+ * through its own fields, so refreshing a session is O(1) and advancing the wheel only visits expired sessions.
+ * The wheel spans more ticks than the timeout, so a slot never holds sessions of different rounds.
+ * Times are `System.nanoTime()` values. Only used by the reactor thread.
+ */
+public class IdleTimeoutWheel {
+
+    /**
+     * The number of ticks in one timeout
+     */
+    private static final int TICKS_PER_TIMEOUT = 8;
+
+    /**
+     * The first session of every slot
+     */
+    private final Session[] slots;
+
+    private final int mask;
+
+    private final long tickNanos;
+
+    private final long timeoutNanos;
+
+    /**
+     * The time of tick zero
+     */
+    private final long origin;
+
+    /**
+     * The next tick to expire
+     */
+    private long currentTick;
+
+    public IdleTimeoutWheel(long timeoutNanos, long now) {
+        this.timeoutNanos = timeoutNanos;
+        this.tickNanos = Math.max(1, timeoutNanos / TICKS_PER_TIMEOUT);
+        // a deadline is at most TICKS_PER_TIMEOUT + 1 ticks ahead of the current tick
+        int slotCount = Integer.highestOneBit(TICKS_PER_TIMEOUT + 2) << 1;
+        this.slots = new Session[slotCount];
+        this.mask = slotCount - 1;
+        this.origin = now;
+    }
+
+    public long getTickMillis() {
+        return Math.max(1, this.tickNanos / 1_000_000L);
+    }
+
+    /**
+     * Move the deadline of the session to `now` plus the timeout
+     */
+    public void refresh(Session session, long now) {
+        // round up, a session never expires before the full timeout
+        long deadlineTick = (now + this.timeoutNanos - this.origin) / this.tickNanos + 1;
+        if (session.getWheelTick() == deadlineTick) {
+            // most refreshes within the same tick stop here
+            return;
+        }
+        this.remove(session);
+        int slot = (int) (deadlineTick & this.mask);
+        Session head = this.slots[slot];
+        session.setWheelTick(deadlineTick);
+        session.setWheelPrevious(null);
+        session.setWheelNext(head);
+        if (head != null) {
+            head.setWheelPrevious(session);
+        }
+        this.slots[slot] = session;
+    }
+
+    /**
+     * Take the session out of the wheel, it never expires until it is refreshed again
+     */
+    public void remove(Session session) {
+        if (session.getWheelTick() < 0) {
+            return;
+        }
+        Session previous = session.getWheelPrevious();
+        Session next = session.getWheelNext();
+        if (previous == null) {
+            this.slots[(int) (session.getWheelTick() & this.mask)] = next;
+        } else {
+            previous.setWheelNext(next);
+        }
+        if (next != null) {
+            next.setWheelPrevious(previous);
+        }
+        session.setWheelTick(-1);
+        session.setWheelPrevious(null);
+        session.setWheelNext(null);
+    }
+
+    /**
+     * Remove and return a session which expired at or before `now`.
+     *
+     * @return the expired session, or null if no session expired
+     */
+    public Session poll(long now) {
+        long nowTick = (now - this.origin) / this.tickNanos;
+        while (this.currentTick <= nowTick) {
+            Session head = this.slots[(int) (this.currentTick & this.mask)];
+            if (head != null) {
+                this.remove(head);
+                return head;
+            }
+            this.currentTick ++;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,427 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The pending output of a single connection: queued msgs followed by an optional replay of the history. It is
+ * only written when the socket channel is writable, so a full TCP window never corrupts or blocks anything.
+ * Control msgs, e.g. the hello and subscribe responses or the first msg of a replay, are kept apart from the
+ * real-time msgs and written first, and only the real-time msgs are subject to the slow consumer policy.
+ * Only used by the reactor thread which owns the connection.
+ */
+public class OutboundQueue {
+
+    /**
+     * Complete control msgs waiting to be written, the head may be partially written
+     */
+    private final ArrayDeque<ByteBuffer> controlFrames = new ArrayDeque<>();
+
+    /**
+     * Complete real-time msgs waiting to be written, the head may be partially written
+     */
+    private final ArrayDeque<ByteBuffer> liveFrames = new ArrayDeque<>();
+
+    /**
+     * The subscription of every msg in `liveFrames`, in the same order
+     */
+    private final ArrayDeque<Subscription> liveSubscriptions = new ArrayDeque<>();
+
+    /**
+     * The maximum number of queued msgs handed to a single gathering write
+     */
+    private static final int MAX_GATHERED_FRAMES = 64;
+
+    /**
+     * Reused for every gathering write
+     */
+    private final ByteBuffer[] gatheredFrames = new ByteBuffer[MAX_GATHERED_FRAMES];
+
+    /**
+     * Whether the history data is being replayed from the wire frames of the history store
+     */
+    private boolean replaying;
+
+    /**
+     * Where the current replay reads the wire frames of its topic from
+     */
+    private HistoryReader replayReader;
+
+    /**
+     * The msgs being replayed if they are encoded for the session, or null if the replay sends the pre-encoded wire
+     * frames of the history store, which only protocol version 1 without batching and sequence numbers can use.
+     * Only allocated while replaying.
+     */
+    private ByteBuffer replayBuffer;
+
+    /**
+     * The protocol version and features of the msgs encoded into `replayBuffer`
+     */
+    private int replayVersion = ProtocolVersion.V1;
+
+    private int replayFeatures;
+
+    /**
+     * The deflate level and the block size of a compressed replay
+     */
+    private int replayCompressionLevel;
+
+    private int replayBlockSize;
+
+    /**
+     * Deflates the encoded msgs into `replayBuffer`, or null if the replay is not compressed
+     */
+    private ReplayCompressor replayCompressor;
+
+    /**
+     * The pool of the replay buffers and compressors of the reactor
+     */
+    private final ReplayMemory replayMemory;
+
+    /**
+     * Set when the replay stops at `replayLimit` instead of catching up with the history
+     */
+    private boolean replayStopping;
+
+    /**
+     * The byte position of the next wire frame byte to be replayed. An encoded replay counts in wire frames as well,
+     * so it always stands at a frame boundary.
+     */
+    private long replayPosition;
+
+    /**
+     * The byte position where the current replay stops, it is extended until the replay catches up with the store
+     */
+    private long replayLimit;
+
+    /**
+     * See `SlowConsumerPolicy`
+     */
+    private final int slowConsumerPolicy;
+
+    /**
+     * The maximum number of queued msgs before the slow consumer policy applies
+     */
+    private final int maxBacklog;
+
+    /**
+     * Set when the client fell too far behind under `SlowConsumerPolicy.DISCONNECT`
+     */
+    private boolean overflowed;
+
+    /**
+     * The lag counters of the client
+     */
+    private long droppedFrames;
+
+    private long conflatedFrames;
+
+    private int maxObservedBacklog;
+
+    public OutboundQueue(int slowConsumerPolicy, int maxBacklog, ReplayMemory replayMemory) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.maxBacklog = maxBacklog;
+        this.replayMemory = replayMemory;
+    }
+
+    /**
+     * Replay the history starting from `fromIndex` after the queued msgs, until the replay has caught up with the store.
+     *
+     * @param firstFrame an optional msg sent before the replayed wire frames
+     */
+    public void startReplay(HistoryReader historyReader, long fromIndex, ByteBuffer firstFrame) {
+        if (firstFrame != null) {
+            this.controlFrames.add(firstFrame);
+        }
+        this.release();
+        this.allocateReplayBuffers();
+        this.replaying = true;
+        this.replayReader = historyReader;
+        this.replayStopping = false;
+        this.replayPosition = fromIndex * historyReader.getWireFrameSize();
+        this.replayLimit = this.replayPosition;
+    }
+
+    /**
+     * Replay the history in the msgs of the given protocol version from now on. Must not be called during a replay.
+     *
+     * @param compressionLevel the deflate level, ignored without `Feature.COMPRESSED_REPLAY`
+     * @param blockSize the block size, ignored without `Feature.COMPRESSED_REPLAY`
+     */
+    public void setReplayEncoding(int version, int features, int compressionLevel, int blockSize) {
+        this.replayVersion = version;
+        this.replayFeatures = features;
+        this.replayCompressionLevel = compressionLevel;
+        this.replayBlockSize = blockSize;
+    }
+
+    /**
+     * Take the buffers of a replay in the negotiated encoding from the pool of the reactor. A compressed replay which
+     * does not fit into the memory budget of the reactor is sent uncompressed.
+     */
+    private void allocateReplayBuffers() {
+        int version = this.replayVersion;
+        int features = this.replayFeatures;
+        if (version == ProtocolVersion.V1 && (features & (Feature.BATCHED_DATA | Feature.SEQUENCE_NUMBERS)) == 0) {
+            return;
+        }
+        int capacity = Math.max(RecordEncoder.maxBatchSize(version, features, RecordEncoder.MAX_BATCH_RECORDS), RecordEncoder.MAX_BATCH_RECORDS * RecordEncoder.dataResponseSize(version, features, Topic.DEFAULT_TOPIC_ID + 1));
+        if ((features & Feature.COMPRESSED_REPLAY) != 0) {
+            this.replayCompressor = this.replayMemory.acquireCompressor(this.replayCompressionLevel, this.replayBlockSize, capacity);
+            if (this.replayCompressor != null) {
+                capacity = ReplayCompressor.blockCapacity(this.replayBlockSize);
+            }
+        }
+        // empty until the first msgs are encoded
+        this.replayBuffer = this.replayMemory.acquireBuffer(capacity).flip();
+    }
+
+    /**
+     * Return the buffers and the compressor of the replay to the pool, if any
+     */
+    public void release() {
+        if (this.replayCompressor != null) {
+            this.replayMemory.releaseCompressor(this.replayCompressor);
+            this.replayCompressor = null;
+        }
+        if (this.replayBuffer != null) {
+            this.replayMemory.releaseBuffer(this.replayBuffer);
+            this.replayBuffer = null;
+        }
+    }
+
+    /**
+     * Stop the current replay at the end of the wire frame being written
+     */
+    public void stopReplay() {
+        if (!this.replaying) {
+            return;
+        }
+        int wireFrameSize = this.replayReader.getWireFrameSize();
+        this.replayLimit = (this.replayPosition + wireFrameSize - 1) / wireFrameSize * wireFrameSize;
+        this.replayStopping = true;
+    }
+
+    /**
+     * Queue a control msg, which is never dropped regardless of the slow consumer policy
+     */
+    public void add(ByteBuffer frame) {
+        this.controlFrames.add(frame);
+    }
+
+    /**
+     * Queue a real-time msg of the given subscription, applying the slow consumer policy if the queue is full.
+     *
+     * @return whether the queue has to be flushed
+     */
+    public boolean offer(ByteBuffer frame, Subscription subscription) {
+        if (this.liveFrames.size() >= this.maxBacklog && this.applySlowConsumerPolicy(subscription)) {
+            return true;
+        }
+        this.liveFrames.add(frame);
+        this.liveSubscriptions.add(subscription);
+        this.maxObservedBacklog = Math.max(this.maxObservedBacklog, this.liveFrames.size());
+
+        return this.liveFrames.size() + this.controlFrames.size() == 1;
+    }
+
+    /**
+     * Drop the queued real-time msgs of the subscription, e.g. when the whole history is replayed to it anyway. A
+     * partially written msg is kept.
+     */
+    public void discardLive(Subscription subscription) {
+        this.removeLive(subscription);
+    }
+
+    /**
+     * @return the index of the record after the last replayed one
+     */
+    public long getReplayedIndex() {
+        return this.replayPosition / this.replayReader.getWireFrameSize();
+    }
+
+    /**
+     * Make room for a new msg of the given subscription in a full queue. The head is never removed once it has been
+     * partially written.
+     *
+     * @return whether the connection has to be closed by the selector thread
+     */
+    private boolean applySlowConsumerPolicy(Subscription subscription) {
+        switch (this.slowConsumerPolicy) {
+            case SlowConsumerPolicy.DROP_OLDEST: {
+                this.dropOldest();
+                return false;
+            }
+            case SlowConsumerPolicy.CONFLATE: {
+                // the new msg supersedes the queued msgs of its own topic only
+                this.conflatedFrames += this.removeLive(subscription);
+                if (this.liveFrames.size() >= this.maxBacklog) {
+                    // the queue is full of the msgs of other topics
+                    this.dropOldest();
+                }
+                return false;
+            }
+            default: {
+                this.overflowed = true;
+                return true;
+            }
+        }
+    }
+
+    private void dropOldest() {
+        Iterator<ByteBuffer> frameIterator = this.liveFrames.iterator();
+        Iterator<Subscription> subscriptionIterator = this.liveSubscriptions.iterator();
+        while (frameIterator.hasNext()) {
+            ByteBuffer frame = frameIterator.next();
+            subscriptionIterator.next();
+            if (frame.position() == 0) {
+                frameIterator.remove();
+                subscriptionIterator.remove();
+                this.droppedFrames ++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the queued real-time msgs of the subscription which have not been partially written
+     *
+     * @return the number of removed msgs
+     */
+    private int removeLive(Subscription subscription) {
+        int removed = 0;
+        Iterator<ByteBuffer> frameIterator = this.liveFrames.iterator();
+        Iterator<Subscription> subscriptionIterator = this.liveSubscriptions.iterator();
+        while (frameIterator.hasNext()) {
+            ByteBuffer frame = frameIterator.next();
+            if (subscriptionIterator.next() == subscription && frame.position() == 0) {
+                frameIterator.remove();
+                subscriptionIterator.remove();
+                removed ++;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * @return whether the next real-time msg would trigger the slow consumer policy
+     */
+    public boolean isFull() {
+        return this.liveFrames.size() >= this.maxBacklog;
+    }
+
+    /**
+     * @return whether the slow consumer policy has dropped or conflated msgs of the client
+     */
+    public boolean hasLagged() {
+        return this.droppedFrames > 0 || this.conflatedFrames > 0;
+    }
+
+    public int getBacklog() {
+        return this.liveFrames.size();
+    }
+
+    public String getLagStatistics() {
+        return "policy=" + SlowConsumerPolicy.toString(this.slowConsumerPolicy) + ", backlog=" + this.liveFrames.size() + ", maxBacklog=" + this.maxObservedBacklog + ", dropped=" + this.droppedFrames + ", conflated=" + this.conflatedFrames;
+    }
+
+    /**
+     * Write as much pending output as the socket channel accepts.
+     *
+     * @return `StatusCode.SUCCESS` if everything was written, `StatusCode.NOT_COMPLETE` if the socket channel is full,
+     *         or `StatusCode.FAIL` if the connection has to be closed
+     */
+    public int flush(SocketChannel socketChannel) {
+        if (this.overflowed) {
+            System.err.println("The client fell too far behind and will be disconnected: " + this.getLagStatistics());
+            return StatusCode.FAIL;
+        }
+        try {
+            while (true) {
+                // queued frames precede the replay, but never split one of its msgs
+                boolean midFrame;
+                if (this.replayBuffer != null) {
+                    midFrame = this.replayBuffer.hasRemaining();
+                } else {
+                    midFrame = this.replaying && this.replayPosition % this.replayReader.getWireFrameSize() != 0;
+                }
+                // control msgs go first, unless a real-time msg has been partially written
+                ArrayDeque<ByteBuffer> frames = null;
+                if (!this.liveFrames.isEmpty() && (this.controlFrames.isEmpty() || this.liveFrames.peek().position() > 0)) {
+                    frames = this.liveFrames;
+                } else if (!this.controlFrames.isEmpty()) {
+                    frames = this.controlFrames;
+                }
+                if (frames != null && !midFrame) {
+                    // send as many queued msgs as possible with one gathering write
+                    int count = 0;
+                    for (ByteBuffer frame : frames) {
+                        this.gatheredFrames[count ++] = frame;
+                        if (count == MAX_GATHERED_FRAMES) {
+                            break;
+                        }
+                    }
+                    socketChannel.write(this.gatheredFrames, 0, count);
+                    boolean complete = !this.gatheredFrames[count - 1].hasRemaining();
+                    Arrays.fill(this.gatheredFrames, 0, count, null);
+                    // remove the msgs which were written completely
+                    while (!frames.isEmpty() && !frames.peek().hasRemaining()) {
+                        frames.poll();
+                        if (frames == this.liveFrames) {
+                            this.liveSubscriptions.poll();
+                        }
+                    }
+                    if (!complete) {
+                        return StatusCode.NOT_COMPLETE;
+                    }
+                    continue;
+                }
+                if (!this.replaying) {
+                    return StatusCode.SUCCESS;
+                }
+                if (this.replayBuffer != null && midFrame) {
+                    // finish the encoded msgs
+                    socketChannel.write(this.replayBuffer);
+                    if (this.replayBuffer.hasRemaining()) {
+                        return StatusCode.NOT_COMPLETE;
+                    }
+                    continue;
+                }
+                if (this.replayPosition == this.replayLimit) {
+                    // catch up with the records published during the replay
+                    long recordCount = this.replayReader.size();
+                    long limit = recordCount * this.replayReader.getWireFrameSize();
+                    if (limit <= this.replayPosition || this.replayStopping) {
+                        this.replaying = false;
+                        this.release();
+                        return StatusCode.SUCCESS;
+                    }
+                    this.replayLimit = limit;
+                }
+                long transferred;
+                if (this.replayCompressor != null) {
+                    // encode and deflate the next block, it is written in the next round
+                    int wireFrameSize = this.replayReader.getWireFrameSize();
+                    transferred = (long) this.replayCompressor.compressBlock(this.replayReader, this.replayPosition / wireFrameSize, this.replayLimit / wireFrameSize, this.replayVersion, this.replayFeatures, this.replayBuffer) * wireFrameSize;
+                } else if (this.replayBuffer != null) {
+                    // encode the next msgs, they are written in the next round
+                    int wireFrameSize = this.replayReader.getWireFrameSize();
+                    transferred = (long) this.replayReader.encodeReplay(this.replayPosition / wireFrameSize, this.replayLimit / wireFrameSize, this.replayBuffer, this.replayVersion, this.replayFeatures) * wireFrameSize;
+                } else {
+                    transferred = this.replayReader.transferWireFrames(this.replayPosition, this.replayLimit, socketChannel);
+                }
+                if (transferred == 0) {
+                    return StatusCode.NOT_COMPLETE;
+                }
+                this.replayPosition += transferred;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to send the data on the current socket channel: " + e.getMessage());
+            return StatusCode.FAIL;
+        }
+    }
+}
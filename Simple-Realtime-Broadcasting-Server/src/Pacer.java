@@ -0,0 +1,80 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces events at a fixed rate. Every deadline is computed from the start time and the number of events, so the time
+ * spent between two events never accumulates as drift, and a caller that fell behind is told how many events are due.
+ * After a stall, e.g. a GC pause, at most one burst is made up and the rest of the backlog is skipped, so the stall
+ * does not turn into a spike of events.
+ */
+public class Pacer {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /**
+     * The last part of every wait is spent spinning, since parking overshoots by tens of microseconds
+     */
+    private static final long SPIN_NANOS = 100_000L;
+
+    /**
+     * Events per second
+     */
+    private final long rate;
+
+    /**
+     * The most events handed out at once
+     */
+    private final long maxBurst;
+
+    /**
+     * The deadline of the first event, moved ahead when a backlog is skipped
+     */
+    private long startTime;
+
+    /**
+     * The number of events handed out so far
+     */
+    private long count;
+
+    public Pacer(long rate, long maxBurst) {
+        this.rate = rate;
+        this.maxBurst = Math.max(1, maxBurst);
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * The deadline of the `n`-th event, split up so the product cannot overflow
+     */
+    private long deadlineOf(long n) {
+        return this.startTime + n / this.rate * NANOS_PER_SECOND + n % this.rate * NANOS_PER_SECOND / this.rate;
+    }
+
+    /**
+     * Wait until the next event is due.
+     *
+     * @return the number of events due now, more than one if the caller fell behind, but at most `maxBurst`
+     */
+    public long awaitNext() {
+        long deadline = this.deadlineOf(this.count);
+        long remaining = deadline - System.nanoTime();
+        if (remaining > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+        }
+        long now;
+        while ((now = System.nanoTime()) - deadline < 0) {
+            Thread.onSpinWait();
+        }
+        // hand out the events whose deadline has passed, up to one burst
+        long due = 0;
+        do {
+            this.count ++;
+            due ++;
+        } while (due < this.maxBurst && this.deadlineOf(this.count) - now <= 0);
+        if (this.deadlineOf(this.count) - now <= 0) {
+            // skip the rest of the backlog, the schedule starts over one period from now
+            this.startTime = now + NANOS_PER_SECOND / this.rate;
+            this.count = 0;
+        }
+
+        return due;
+    }
+}
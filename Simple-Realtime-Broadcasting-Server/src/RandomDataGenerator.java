@@ -1,12 +1,4 @@
-import java.io.FileWriter;
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 public class RandomDataGenerator implements Runnable {
 
@@ -21,140 +13,32 @@ public class RandomDataGenerator implements Runnable {
     private Random randomIntegerGenerator;
 
     /**
-     * Write generated random integers to "server_data.txt"
+     * Where the generated random integers go
      */
-    private FileWriter fileWriter;
+    private DataPublisher dataPublisher;
 
     /**
-     * The default file path of server data file
+     * Random integers per second
      */
-    private String filePath = "server_data.txt";
+    private long rate;
 
-    /**
-     * The date formatter which converts the current time to a more precise one
-     */
-    SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-
-    private CopyOnWriteArraySet<SocketChannel> historyDataSent;
-
-    private CopyOnWriteArraySet<SocketChannel> newHistoryDataSent;
-
-    private ConcurrentHashMap<SocketChannel, BufferPair> socketChannel2BufferPair;
-
-    private ConcurrentHashMap<SocketChannel, Date> lastHeartBeatTime;
-
-    public RandomDataGenerator(int range, CopyOnWriteArraySet<SocketChannel> historyDataSent, CopyOnWriteArraySet<SocketChannel> newHistoryDataSent, ConcurrentHashMap<SocketChannel, BufferPair> socketChannel2BufferPair, ConcurrentHashMap<SocketChannel, Date> lastHeartBeatTime) {
+    public RandomDataGenerator(int range, long rate, DataPublisher dataPublisher) {
         this.range = range;
+        this.rate = rate;
         this.randomIntegerGenerator = new Random();
-        while (true) {
-            try {
-                this.fileWriter = new FileWriter(this.filePath, true);
-                break;
-            } catch (IOException e) {
-                e.printStackTrace();
-                System.out.println("Please assign another server data file to the server. Input the path below: ");
-                Scanner scanner = new Scanner(System.in);
-                filePath = scanner.nextLine();
-            }
-        }
-        this.historyDataSent = historyDataSent;
-        this.newHistoryDataSent = newHistoryDataSent;
-        this.socketChannel2BufferPair = socketChannel2BufferPair;
-        this.lastHeartBeatTime = lastHeartBeatTime;
-    }
-
-    private void closeASocketChannel(SocketChannel socketChannel) {
-        if (socketChannel != null) {
-            try {
-                socketChannel.close();
-                this.socketChannel2BufferPair.remove(socketChannel);
-                this.lastHeartBeatTime.remove(socketChannel);
-                this.historyDataSent.remove(socketChannel);
-                this.newHistoryDataSent.remove(socketChannel);
-                this.lastHeartBeatTime.remove(socketChannel);
-            } catch (IOException e) {
-                e.printStackTrace();
-                System.err.println("Cannot close the given socket channel: " + e.getMessage());
-            }
-        }
+        this.dataPublisher = dataPublisher;
     }
 
     @Override
     public void run() {
-        int randomInteger;
+        // the deadlines are fixed in advance, so the time spent publishing does not delay the next integer, and a
+        // stall is made up by at most one batch of integers
+        Pacer pacer = new Pacer(this.rate, RecordEncoder.MAX_BATCH_RECORDS);
         while (true) {
-            // generate the random int
-            randomInteger = this.randomIntegerGenerator.nextInt(this.range);
-            // prepare data
-            String formattedTime = this.dateFormatter.format(new Date(System.currentTimeMillis()));
-            String line = "[" + formattedTime + "]" + "::" + randomInteger;
-            // save to the file
-            try {
-                fileWriter.write(line + "\n");
-                fileWriter.flush();
-            } catch (IOException e) {
-                e.printStackTrace();
-                System.out.println("An error occurred when attempting to write to the file \"" + filePath + "\"\n Retrying with the same path...");
-                while (true) {
-                    try {
-                        this.fileWriter = new FileWriter(this.filePath, true);
-                        break;
-                    } catch (IOException ee) {
-                        ee.printStackTrace();
-                        System.out.println("Retry failed. Please assign another server data file to the server. Input the path below: ");
-                        Scanner scanner = new Scanner(System.in);
-                        filePath = scanner.nextLine();
-                    }
-                }
-            }
-            // update `historyDataSent` with `newHistoryDataSent`
-            this.historyDataSent.clear();
-            this.historyDataSent.addAll(this.newHistoryDataSent);
-            // send real-time data
-            Iterator<SocketChannel> iterator = this.historyDataSent.iterator();
-            while (iterator.hasNext()) {
-                // get the socket channel
-                SocketChannel socketChannel = iterator.next();
-                // get the output buffer
-                if (!socketChannel2BufferPair.containsKey(socketChannel)) {
-                    socketChannel2BufferPair.put(socketChannel, new BufferPair());
-                }
-                ByteBuffer outputBuffer = socketChannel2BufferPair.get(socketChannel).getOutputBuffer();
-                if (outputBuffer == null) {
-                    System.err.println("Failed to allocate output buffer for the current socket channel. Please check the memory usage or restart your server.");
-                    // close the socket and free the resources
-                    this.closeASocketChannel(socketChannel);
-                }
-                // prepare the msg header
-                int commandID = CommandID.DATA_RESP;
-                int totalLength = FieldLength.HEADER + FieldLength.TIMESTAMP + FieldLength.DATA;
-                // prepare the msg body
-                String timestamp = "[" + formattedTime + "]";
-                // encapsulate the msg
-                outputBuffer.putInt(totalLength);
-                outputBuffer.putInt(commandID);
-                outputBuffer.put(timestamp.getBytes(StandardCharsets.US_ASCII));
-                outputBuffer.putInt(randomInteger);
-                // switch to the read mode
-                outputBuffer.flip();
-                try {
-                    // send the data
-                    socketChannel.write(outputBuffer);
-                    // switch to the write mode
-                    outputBuffer.compact();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    System.err.println("Cannot write data to the current socket.");
-                    this.closeASocketChannel(socketChannel);
-                }
-            }
-            // sleep 250ms
-            try {
-                Thread.sleep(250);
-            } catch (InterruptedException e) {
-                System.out.println("The data generation thread was interrupted while sleeping");
-                // Re-interrupt the thread to preserve the interruption status
-                Thread.currentThread().interrupt();
+            long due = pacer.awaitNext();
+            for (long i = 0; i < due; i ++) {
+                // generate the random int and publish it
+                this.dataPublisher.publish(this.randomIntegerGenerator.nextInt(this.range));
             }
         }
     }
@@ -0,0 +1,785 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+
+/**
+ * A worker thread with its own selector. It owns the reads, writes, history replays and real-time fan-out of the
+ * connections handed to it by the acceptor.
+ */
+public class Reactor implements Runnable {
+
+    /**
+     * How often the lag of the slow clients is printed
+     */
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private Selector selector;
+
+    private ServerConfig config;
+
+    /**
+     * The topics served by the server, indexed by topic id
+     */
+    private Topic[] topics;
+
+    /**
+     * The subscribers, replay reader and fan-out position of every topic on this reactor, indexed by topic id
+     */
+    private TopicFanOut[] topicFanOuts;
+
+    /**
+     * The socket channels accepted by the acceptor, registered to the selector by the reactor thread
+     */
+    private ConcurrentLinkedQueue<SocketChannel> pendingRegistrations;
+
+    /**
+     * Set once a wakeup for new records is on its way, so a burst of records costs a single wakeup
+     */
+    private AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    private RecordEncoder recordEncoder = new RecordEncoder();
+
+    /**
+     * The off-heap memory budget of the compressed replays of this reactor
+     */
+    private ReplayMemory replayMemory;
+
+    private FrameEncoder frameEncoder = new FrameEncoder();
+
+    /**
+     * Processes the msgs drained from the input buffer of a session
+     */
+    private final FrameHandler<Session> frameHandler = this::process;
+
+    /**
+     * The records being fanned out, read from the ring once per pass
+     */
+    private long[] chunkTimestamps = new long[RecordEncoder.MAX_BATCH_RECORDS];
+
+    private int[] chunkData = new int[RecordEncoder.MAX_BATCH_RECORDS];
+
+    /**
+     * The real-time msgs and batches of the records being fanned out per protocol version, encoded when the first
+     * subscriber needs them. The first index tells whether they carry sequence numbers.
+     */
+    private ByteBuffer[][][] chunkFrames = new ByteBuffer[2][ProtocolVersion.LATEST][RecordEncoder.MAX_BATCH_RECORDS];
+
+    private ByteBuffer[][] chunkBatches = new ByteBuffer[2][ProtocolVersion.LATEST];
+
+    private ByteBuffer[] chunkCompactBatches = new ByteBuffer[2];
+
+    /**
+     * The idle deadlines of the connections of this reactor
+     */
+    private IdleTimeoutWheel idleTimeoutWheel;
+
+    /**
+     * The sessions whose publish msg found the record ring full, retried on every iteration of the event loop
+     */
+    private ArrayDeque<Session> stalledPublishers = new ArrayDeque<>();
+
+    /**
+     * The `System.nanoTime()` of the current iteration of the event loop
+     */
+    private long now;
+
+    private long lastReportTime;
+
+    public Reactor(ServerConfig config, Topic[] topics) throws IOException {
+        this.selector = Selector.open();
+        this.config = config;
+        this.topics = topics;
+        this.topicFanOuts = new TopicFanOut[topics.length];
+        for (int i = 0; i < topics.length; i ++) {
+            this.topicFanOuts[i] = new TopicFanOut(topics[i]);
+        }
+        this.now = System.nanoTime();
+        this.lastReportTime = this.now;
+        this.idleTimeoutWheel = new IdleTimeoutWheel(config.getIdleTimeoutMillis() * 1_000_000L, this.now);
+        this.replayMemory = new ReplayMemory(config.getReplayMemoryBytes());
+        this.pendingRegistrations = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Hand a newly accepted socket channel over to this reactor. Can be called from any thread.
+     */
+    public void register(SocketChannel socketChannel) {
+        this.pendingRegistrations.add(socketChannel);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Tell the reactor that new records were published to the ring. Can be called from any thread.
+     */
+    public void recordsPublished() {
+        if (!this.wakeupPending.get() && this.wakeupPending.compareAndSet(false, true)) {
+            this.selector.wakeup();
+        }
+    }
+
+    /**
+     * The only way a connection is torn down, calling it more than once does nothing
+     */
+    private void closeASession(Session session) {
+        if (session.close()) {
+            for (Subscription subscription : session.getSubscriptions()) {
+                if (subscription != null) {
+                    subscription.getTopicFanOut().getSubscriberList().remove(subscription);
+                }
+            }
+            this.idleTimeoutWheel.remove(session);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            // select the socket which has the new event
+            try {
+                // wake up at least once per tick of the idle timeout wheel, and soon while publishers are stalled
+                this.selector.select(this.stalledPublishers.isEmpty() ? this.idleTimeoutWheel.getTickMillis() : 1);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Cannot call select() method on the reactor selector: " + e.getMessage());
+                return;
+            } catch (ClosedSelectorException e) {
+                e.printStackTrace();
+                System.err.println("The reactor selector was closed unexpectedly: " + e.getMessage());
+                return;
+            }
+            this.now = System.nanoTime();
+            // records published from now on need another wakeup
+            this.wakeupPending.set(false);
+            this.registerPendingSocketChannels();
+            this.fanOutRecords();
+            this.retryStalledPublishers();
+            this.closeIdleSessions();
+            this.reportLag();
+            // get selection keys
+            Set<SelectionKey> keys = this.selector.selectedKeys();
+            Iterator<SelectionKey> iterator = keys.iterator();
+            // iterate through the keys and process the tasks
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                Session session = (Session) key.attachment();
+                try {
+                    this.handleKey(key, session);
+                } catch (RuntimeException e) {
+                    // a bug hit by one connection must not take the others of the reactor down with it
+                    this.closeAfterError(session, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read and process the msgs of a selected key, and go on writing its pending output
+     */
+    private void handleKey(SelectionKey key, Session session) {
+        if (key.isReadable()) {
+            // perform read operation on the given socket
+            if (this.read(session) == StatusCode.FAIL) {
+                // close the socket if fail
+                this.closeASession(session);
+                return;
+            }
+            // process every complete msg, e.g. a heartbeat and a data req may arrive together
+            int result = session.getFrameDecoder().decode(this.frameHandler, session);
+            if (result == StatusCode.FAIL) {
+                // close the socket if fail
+                this.closeASession(session);
+                return;
+            }
+            if (result == StatusCode.NOT_COMPLETE) {
+                // a publish msg found the ring full, stop reading until it has been published
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                this.stalledPublishers.add(session);
+            }
+        }
+        if (key.isValid() && key.isWritable()) {
+            // continue sending the pending output
+            if (this.write(session) == StatusCode.FAIL) {
+                // close the socket if fail
+                this.closeASession(session);
+            }
+        }
+    }
+
+    /**
+     * Close a session whose handling threw unexpectedly, the other sessions of the reactor are not affected
+     */
+    private void closeAfterError(Session session, RuntimeException e) {
+        e.printStackTrace();
+        System.err.println("[" + new Date() + "] " + "Closing " + session.getSocketChannel() + " after an unexpected error: " + e);
+        this.closeASession(session);
+    }
+
+    private void registerPendingSocketChannels() {
+        SocketChannel socketChannel;
+        while ((socketChannel = this.pendingRegistrations.poll()) != null) {
+            // register the socket channel to the reactor selector
+            SelectionKey key;
+            try {
+                // OP_WRITE is only added while there is pending output
+                key = socketChannel.register(this.selector, SelectionKey.OP_READ);
+            } catch (ClosedChannelException e) {
+                e.printStackTrace();
+                System.err.println("Cannot register the given socket channel to the reactor selector since the socket channel has been closed unexpectedly: " +e.getMessage());
+                continue;
+            }
+            // attach the session to the key
+            Session session = new Session(key, this.config, this.topics.length, this.replayMemory);
+            session.setPublisher(this.config.isRemotePublishAllowed() || this.isLocal(socketChannel));
+            key.attach(session);
+            this.idleTimeoutWheel.refresh(session, this.now);
+        }
+    }
+
+    private boolean isLocal(SocketChannel socketChannel) {
+        try {
+            SocketAddress remoteAddress = socketChannel.getRemoteAddress();
+            return remoteAddress instanceof InetSocketAddress && ((InetSocketAddress) remoteAddress).getAddress().isLoopbackAddress();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Cannot get the remote address of the given socket channel: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Print the lag statistics of the clients which lost real-time msgs to the slow consumer policy or have a backlog
+     */
+    private void reportLag() {
+        if (this.now - this.lastReportTime < REPORT_INTERVAL_NANOS) {
+            return;
+        }
+        this.lastReportTime = this.now;
+        for (SelectionKey key : this.selector.keys()) {
+            Session session = (Session) key.attachment();
+            if (session == null || !key.isValid()) {
+                continue;
+            }
+            OutboundQueue outboundQueue = session.getOutboundQueue();
+            if (outboundQueue.hasLagged() || outboundQueue.getBacklog() > 0) {
+                System.out.println("[" + Thread.currentThread().getName() + "] Lag of " + session.getSocketChannel() + ": " + outboundQueue.getLagStatistics());
+            }
+        }
+    }
+
+    /**
+     * Go on with the publish msgs which found the record ring full, and read from their clients again once they are
+     * published
+     */
+    private void retryStalledPublishers() {
+        Iterator<Session> iterator = this.stalledPublishers.iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            SelectionKey key = session.getKey();
+            if (!key.isValid()) {
+                iterator.remove();
+                continue;
+            }
+            // the client is waiting for the server, not idle
+            this.idleTimeoutWheel.refresh(session, this.now);
+            int result;
+            try {
+                result = session.getFrameDecoder().decode(this.frameHandler, session);
+            } catch (RuntimeException e) {
+                iterator.remove();
+                this.closeAfterError(session, e);
+                continue;
+            }
+            if (result == StatusCode.FAIL) {
+                iterator.remove();
+                this.closeASession(session);
+            } else if (result == StatusCode.SUCCESS) {
+                iterator.remove();
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * Close the connections which have not sent anything within the idle timeout
+     */
+    private void closeIdleSessions() {
+        Session session;
+        while ((session = this.idleTimeoutWheel.poll(this.now)) != null) {
+            System.out.println(session.getSocketChannel() + "heartbeat timed out.");
+            this.closeASession(session);
+        }
+    }
+
+    /**
+     * Fan the records published since the last call out to the subscribers. Each record is encoded once per reactor.
+     */
+    private void fanOutRecords() {
+        for (TopicFanOut topicFanOut : this.topicFanOuts) {
+            this.fanOutRecords(topicFanOut);
+        }
+    }
+
+    private void fanOutRecords(TopicFanOut topicFanOut) {
+        RecordRing recordRing = topicFanOut.getTopic().getRecordRing();
+        int topicId = topicFanOut.getTopic().getId();
+        SubscriberList subscribers = topicFanOut.getSubscriberList();
+        long cursor = recordRing.getCursor();
+        while (topicFanOut.getFanOutSequence() < cursor) {
+            long fromSequence = topicFanOut.getFanOutSequence();
+            int count = (int) Math.min(RecordEncoder.MAX_BATCH_RECORDS, cursor - fromSequence);
+            for (int i = 0; i < count; i ++) {
+                this.chunkTimestamps[i] = recordRing.getTimestamp(fromSequence + i);
+                this.chunkData[i] = recordRing.getData(fromSequence + i);
+            }
+            // the oldest record is overwritten first, so the rest is intact if it still is
+            if (!recordRing.isAvailable(fromSequence)) {
+                // this reactor fell a whole ring behind, the subscribers recover the skipped records from the store
+                topicFanOut.setFanOutSequence(recordRing.getCursor() - recordRing.getCapacity() + 1);
+                continue;
+            }
+            long toSequence = fromSequence + count;
+            for (int sequenced = 0; sequenced < 2; sequenced ++) {
+                for (int version = ProtocolVersion.V1; version <= ProtocolVersion.LATEST; version ++) {
+                    Arrays.fill(this.chunkFrames[sequenced][version - 1], 0, count, null);
+                    this.chunkBatches[sequenced][version - 1] = null;
+                }
+                this.chunkCompactBatches[sequenced] = null;
+            }
+            // iterate backwards, a closed session is replaced by the last one which has been visited already
+            for (int i = subscribers.size() - 1; i >= 0; i --) {
+                Subscription subscription = subscribers.get(i);
+                if (subscription.getState() != SessionState.LIVE) {
+                    // the replay picks the records up
+                    continue;
+                }
+                try {
+                    this.fanOutRecords(subscription, recordRing, fromSequence, count, topicId);
+                } catch (RuntimeException e) {
+                    this.closeAfterError(subscription.getSession(), e);
+                }
+            }
+            topicFanOut.setFanOutSequence(toSequence);
+        }
+    }
+
+    /**
+     * Queue the records of the current fan-out pass for a live subscription and write them
+     */
+    private void fanOutRecords(Subscription subscription, RecordRing recordRing, long fromSequence, int count, int topicId) {
+        long toSequence = fromSequence + count;
+        boolean flush = false;
+        if (subscription.getNextIndex() < fromSequence) {
+            flush = this.catchUpFromRing(subscription, recordRing, fromSequence);
+        }
+        Session session = subscription.getSession();
+        int version = session.getProtocolVersion();
+        int sequenced = session.isSequenced() ? 1 : 0;
+        if (session.isBatched() && count > 1 && subscription.getNextIndex() == fromSequence) {
+            // a burst travels in a single msg
+            ByteBuffer batch;
+            if (session.isCompact()) {
+                if (this.chunkCompactBatches[sequenced] == null) {
+                    this.chunkCompactBatches[sequenced] = this.encodeDataBatch(version, session.getFeatures(), fromSequence, count, topicId).asReadOnlyBuffer();
+                }
+                batch = this.chunkCompactBatches[sequenced];
+            } else {
+                if (this.chunkBatches[sequenced][version - 1] == null) {
+                    this.chunkBatches[sequenced][version - 1] = this.encodeDataBatch(version, session.getFeatures(), fromSequence, count, topicId).asReadOnlyBuffer();
+                }
+                batch = this.chunkBatches[sequenced][version - 1];
+            }
+            flush |= subscription.offerLive(fromSequence, toSequence, batch.duplicate());
+        } else {
+            ByteBuffer[] frames = this.chunkFrames[sequenced][version - 1];
+            for (int j = 0; j < count; j ++) {
+                if (frames[j] == null) {
+                    frames[j] = this.recordEncoder.encodeDataResponse(version, session.getFeatures(), DataStatus.REAL_TIME, this.chunkTimestamps[j], this.chunkData[j], fromSequence + j, topicId).asReadOnlyBuffer();
+                }
+                // every client gets its own position over the shared msg
+                flush |= subscription.offerLive(fromSequence + j, frames[j].duplicate());
+            }
+        }
+        if (flush && this.write(session) == StatusCode.FAIL) {
+            this.closeASession(session);
+        }
+    }
+
+    /**
+     * Queue the records a live subscription missed up to `sequence` from the ring while its outbound queue has room.
+     * Once the queue is full, or if the ring no longer holds them, the subscription replays the rest from the store,
+     * starting after the last queued record.
+     *
+     * @return whether the outbound queue has to be flushed
+     */
+    private boolean catchUpFromRing(Subscription subscription, RecordRing recordRing, long sequence) {
+        Session session = subscription.getSession();
+        boolean flush = false;
+        for (long missed = subscription.getNextIndex(); missed < sequence; missed ++) {
+            long timestamp = recordRing.getTimestamp(missed);
+            int data = recordRing.getData(missed);
+            if (!recordRing.isAvailable(missed) || session.getOutboundQueue().isFull()) {
+                // the replay is paced by the socket, unlike the slow consumer policy it drops nothing
+                subscription.startReplay(subscription.getNextIndex(), null);
+                return true;
+            }
+            flush |= subscription.offerLive(missed, this.recordEncoder.encodeDataResponse(session.getProtocolVersion(), session.getFeatures(), DataStatus.HISTORY, timestamp, data, missed, subscription.getTopicId()));
+        }
+
+        return flush;
+    }
+
+    /**
+     * Encode the real-time records of the current fan-out pass into a data response batch msg
+     */
+    private ByteBuffer encodeDataBatch(int version, int features, long fromSequence, int count, int topicId) {
+        ByteBuffer outputBuffer = ByteBuffer.allocate(RecordEncoder.maxBatchSize(version, features, count));
+        this.recordEncoder.startBatch(outputBuffer, version, features, DataStatus.REAL_TIME, fromSequence, topicId);
+        for (int i = 0; i < count; i ++) {
+            this.recordEncoder.addToBatch(outputBuffer, this.chunkTimestamps[i], this.chunkData[i]);
+        }
+        this.recordEncoder.finishBatch(outputBuffer);
+        // switch to the read mode
+        outputBuffer.flip();
+
+        return outputBuffer;
+    }
+
+    /**
+     * Encode a hello msg carrying the protocol version and the features used from now on, followed by the compression
+     * level and the block size of the replay if it is compressed
+     */
+    private ByteBuffer encodeHello(Session session) {
+        int serverTotalLength = FieldLength.HEADER + FieldLength.VERSION + FieldLength.FEATURES;
+        if (session.isReplayCompressed()) {
+            serverTotalLength += FieldLength.COMPRESSION_LEVEL + FieldLength.BLOCK_SIZE;
+        }
+        ByteBuffer outputBuffer = ByteBuffer.allocate(serverTotalLength);
+        if (session.isReplayCompressed()) {
+            this.frameEncoder.putHello(outputBuffer, session.getProtocolVersion(), session.getFeatures(), session.getCompressionLevel(), session.getBlockSize());
+        } else {
+            this.frameEncoder.putHello(outputBuffer, session.getProtocolVersion(), session.getFeatures());
+        }
+        // switch to the read mode
+        outputBuffer.flip();
+
+        return outputBuffer;
+    }
+
+    /**
+     * Encode a subscribe response msg, the topic id is -1 if there is no topic of the given name
+     */
+    private ByteBuffer encodeSubscribeResponse(int topicId, byte[] topicName) {
+        int serverTotalLength = FieldLength.HEADER + FieldLength.TOPIC_ID + topicName.length;
+        ByteBuffer outputBuffer = ByteBuffer.allocate(serverTotalLength);
+        this.frameEncoder.putSubscribeResponse(outputBuffer, topicId, topicName);
+        // switch to the read mode
+        outputBuffer.flip();
+
+        return outputBuffer;
+    }
+
+    /**
+     * Subscribe the session to the topic and resume right after the client's last record, or replay everything if it
+     * cannot be found. A live subscription asking again restarts its replay, one still replaying is left alone.
+     */
+    private int subscribe(Session session, TopicFanOut topicFanOut, Frame frame) {
+        Subscription subscription = session.getSubscription(topicFanOut.getTopic().getId());
+        if (subscription != null && subscription.getState() != SessionState.LIVE) {
+            return StatusCode.SUCCESS;
+        }
+        if (subscription == null) {
+            subscription = new Subscription(session, topicFanOut);
+            session.addSubscription(subscription);
+        }
+        long lastIndex = this.matchHistoryData(topicFanOut.getHistoryReader(), session, frame);
+        if (lastIndex == StatusCode.FAIL) {
+            return this.sendHistoryData(subscription, 0, DataStatus.NOT_FOUND);
+        }
+
+        return this.sendHistoryData(subscription, lastIndex + 1, DataStatus.HISTORY);
+    }
+
+    /**
+     * Queue the history data starting from `fromIndex` for the client. The client receives real-time data once the
+     * replay has caught up with the history store.
+     *
+     * @param firstStatus the status code of the first record, `DataStatus.NOT_FOUND` announces a full replay
+     */
+    private int sendHistoryData(Subscription subscription, long fromIndex, byte firstStatus) {
+        HistoryReader historyReader = subscription.getTopicFanOut().getHistoryReader();
+        // the pre-encoded wire frames all carry the history status code, so a different first status is encoded here
+        ByteBuffer firstFrame = null;
+        // a record the journal has not stored yet is replayed with the history status once it has
+        if (fromIndex < historyReader.size() && firstStatus != DataStatus.HISTORY && historyReader.readRecord(fromIndex)) {
+            Session session = subscription.getSession();
+            firstFrame = this.recordEncoder.encodeDataResponse(session.getProtocolVersion(), session.getFeatures(), firstStatus, historyReader.getRecordTimestamp(), historyReader.getRecordData(), fromIndex, subscription.getTopicId());
+            fromIndex ++;
+        }
+        // the rest of the history is handed to the kernel from the pre-encoded wire frames
+        subscription.startReplay(fromIndex, firstFrame);
+        // subscribe, real-time data is held back until the replay is done
+        subscription.getTopicFanOut().getSubscriberList().add(subscription);
+
+        return this.write(subscription.getSession());
+    }
+
+    /**
+     * Write the pending output of the given session, and only wait for OP_WRITE while output is left.
+     */
+    private int write(Session session) {
+        SelectionKey key = session.getKey();
+        int result = session.flush();
+        if (result == StatusCode.FAIL) {
+            return StatusCode.FAIL;
+        }
+        // a stalled publisher is not read from until its publish msg is done
+        int readOps = session.isPublishStalled() ? 0 : SelectionKey.OP_READ;
+        if (result == StatusCode.NOT_COMPLETE) {
+            key.interestOps(readOps | SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(readOps);
+        }
+
+        return StatusCode.SUCCESS;
+    }
+
+    /**
+     * Process a msg drained from the input buffer of the session.
+     *
+     * @return `StatusCode.FAIL` if the connection has to be closed, or `StatusCode.NOT_COMPLETE` if a publish msg has to
+     *         be handled again once the record ring has room
+     */
+    private int process(Session session, Frame frame) {
+        // get the socket channel
+        SocketChannel socketChannel = session.getSocketChannel();
+        int bodyLength = frame.getBodyLength();
+        // select the corresponding operation by `commandID`
+        switch (frame.getCommandID()) {
+            case CommandID.DATA_REQ: {
+                // the data req subscribes to the default topic, the body is the client's last record
+                if (bodyLength < this.lastRecordLength(session)) {
+                    return StatusCode.FAIL;
+                }
+                if (this.subscribe(session, this.topicFanOuts[Topic.DEFAULT_TOPIC_ID], frame) == StatusCode.FAIL)
+                    return StatusCode.FAIL;
+
+                break;
+            }
+            case CommandID.SUBSCRIBE: {
+                // the body is the client's last record of the topic followed by the topic name
+                int nameOffset = this.lastRecordLength(session);
+                if (bodyLength < nameOffset) {
+                    return StatusCode.FAIL;
+                }
+                byte[] topicName = new byte[bodyLength - nameOffset];
+                frame.getBytes(nameOffset, topicName, 0, topicName.length);
+                Topic topic = this.findTopic(new String(topicName, StandardCharsets.US_ASCII));
+                // the response precedes the replay of the topic
+                session.getOutboundQueue().add(this.encodeSubscribeResponse(topic == null ? -1 : topic.getId(), topicName));
+                int result;
+                if (topic == null) {
+                    result = this.write(session);
+                } else {
+                    result = this.subscribe(session, this.topicFanOuts[topic.getId()], frame);
+                }
+                if (result == StatusCode.FAIL)
+                    return StatusCode.FAIL;
+
+                break;
+            }
+            case CommandID.UNSUBSCRIBE: {
+                if (bodyLength != FieldLength.TOPIC_ID) {
+                    return StatusCode.FAIL;
+                }
+                int topicId = frame.getInt(0);
+                if (topicId < 0 || topicId >= this.topics.length) {
+                    // nothing to unsubscribe from
+                    break;
+                }
+                Subscription subscription = session.getSubscription(topicId);
+                if (subscription != null) {
+                    session.removeSubscription(subscription);
+                    subscription.getTopicFanOut().getSubscriberList().remove(subscription);
+                }
+                break;
+            }
+            case CommandID.HELLO: {
+                int compressedBodyLength = FieldLength.VERSION + FieldLength.FEATURES + FieldLength.COMPRESSION_LEVEL + FieldLength.BLOCK_SIZE;
+                if (bodyLength != FieldLength.VERSION + FieldLength.FEATURES && bodyLength != compressedBodyLength) {
+                    return StatusCode.FAIL;
+                }
+                // the protocol is settled once the first replay has started
+                if (!session.hasSubscriptions()) {
+                    int version = Math.max(ProtocolVersion.V1, Math.min(ProtocolVersion.LATEST, frame.getInt(0)));
+                    int features = frame.getInt(FieldLength.VERSION) & Feature.SUPPORTED;
+                    if (version < ProtocolVersion.V2 || (features & Feature.BATCHED_DATA) == 0) {
+                        // compact batches carry binary timestamps
+                        features &= ~Feature.COMPACT_DATA;
+                    }
+                    int compressionLevel = 0;
+                    int blockSize = 0;
+                    if (bodyLength == compressedBodyLength) {
+                        int levelOffset = FieldLength.VERSION + FieldLength.FEATURES;
+                        compressionLevel = Math.min(Deflater.BEST_COMPRESSION, frame.getInt(levelOffset));
+                        // the block size is capped by the server, a client cannot make it hold more memory, and rounded
+                        // down to a power of two, so the pooled compressors of the reactor come in a few sizes only
+                        blockSize = Integer.highestOneBit(Math.max(ReplayCompressor.MIN_BLOCK_SIZE, Math.min(this.config.getMaxReplayBlockSize(), frame.getInt(levelOffset + FieldLength.COMPRESSION_LEVEL))));
+                    }
+                    if (compressionLevel < Deflater.BEST_SPEED || (features & Feature.BATCHED_DATA) == 0) {
+                        // only the encoded replay is compressed, level 0 would only add overhead
+                        features &= ~Feature.COMPRESSED_REPLAY;
+                    }
+                    session.setProtocol(version, features, compressionLevel, blockSize);
+                }
+                session.getOutboundQueue().add(this.encodeHello(session));
+                if (this.write(session) == StatusCode.FAIL)
+                    return StatusCode.FAIL;
+
+                break;
+            }
+            case CommandID.HEART_BEAT: {
+                try {
+                    System.out.println("[" + new Date() + "] " + "A heartbeat was received from " + socketChannel.getRemoteAddress());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    System.err.println("[" + new Date() + "] " + "A heartbeat was received but we cannot get the remote address.");
+                }
+                break;
+            }
+            case CommandID.PUBLISH: {
+                if (!session.isPublisher() || bodyLength < FieldLength.TOPIC_ID || (bodyLength - FieldLength.TOPIC_ID) % FieldLength.DATA != 0) {
+                    System.err.println("Rejected a publish msg from a client which may not publish or with a malformed body.");
+                    return StatusCode.FAIL;
+                }
+                // the body is the topic id followed by a batch of data fields
+                int topicId = frame.getInt(0);
+                if (topicId < 0 || topicId >= this.topics.length) {
+                    System.err.println("Rejected a publish msg to the unknown topic " + topicId + ".");
+                    return StatusCode.FAIL;
+                }
+                DataPublisher dataPublisher = this.topics[topicId].getDataPublisher();
+                // a stalled msg goes on where it stopped
+                for (int offset = Math.max(FieldLength.TOPIC_ID, session.getPublishOffset()); offset < bodyLength; offset += FieldLength.DATA) {
+                    if (dataPublisher.tryPublish(frame.getInt(offset)) < 0) {
+                        // the history journal is a full ring behind, the reactor must not wait for it
+                        session.setPublishOffset(offset);
+                        return StatusCode.NOT_COMPLETE;
+                    }
+                }
+                session.setPublishOffset(0);
+                break;
+            }
+            default: {
+                // should never happen
+                return StatusCode.FAIL;
+            }
+        }
+
+        return StatusCode.SUCCESS;
+    }
+
+    /**
+     * @return the length of the client's last record at the start of a data req or subscribe msg body: the timestamp,
+     *         the data and, with sequence numbers, the sequence number
+     */
+    private int lastRecordLength(Session session) {
+        int length = ProtocolVersion.timestampLength(session.getProtocolVersion()) + FieldLength.DATA;
+        return session.isSequenced() ? length + FieldLength.SEQUENCE : length;
+    }
+
+    /**
+     * Locate the client's last record in the history of a topic. A sequence number sent by the client is tried first,
+     * the record is read right from its position, which is only searched for by the timestamp if it does not match.
+     *
+     * @param frame the body starts with the client's last record of the session's protocol version and features
+     * @return the index of the matched record, or `StatusCode.FAIL` if the record cannot be found
+     */
+    private long matchHistoryData(HistoryReader historyReader, Session session, Frame frame) {
+        int version = session.getProtocolVersion();
+        int timestampLength = ProtocolVersion.timestampLength(version);
+        long fromMicros;
+        long toMicros;
+        if (version >= ProtocolVersion.V2) {
+            fromMicros = frame.getLong(0);
+            // a timestamp without sub-millisecond digits may have been received in version 1
+            toMicros = fromMicros % 1000 == 0 ? fromMicros + 1000 : fromMicros + 1;
+        } else {
+            fromMicros = Timestamps.parse(frame.getAscii(0, timestampLength));
+            // the wire format only carries milliseconds
+            toMicros = fromMicros + 1000;
+        }
+        if (fromMicros <= 0) {
+            return StatusCode.FAIL;
+        }
+        int clientData = frame.getInt(timestampLength);
+        if (session.isSequenced()) {
+            long sequence = frame.getLong(timestampLength + FieldLength.DATA);
+            // the history may have been replaced since the client received the record
+            if (sequence >= 0 && sequence < historyReader.size() && historyReader.readRecord(sequence)) {
+                long timestamp = historyReader.getRecordTimestamp();
+                if (timestamp >= fromMicros && timestamp < toMicros && historyReader.getRecordData() == clientData) {
+                    return sequence;
+                }
+            }
+        }
+        long index = historyReader.find(fromMicros, toMicros, clientData);
+        if (index < 0) {
+            return StatusCode.FAIL;
+        }
+
+        return index;
+    }
+
+    /**
+     * @return the topic of the given name, or null if there is no such topic
+     */
+    private Topic findTopic(String name) {
+        for (Topic topic : this.topics) {
+            if (topic.getName().equals(name)) {
+                return topic;
+            }
+        }
+
+        return null;
+    }
+
+    private int read(Session session) {
+        // get the socket channel and the input buffer from the session
+        SocketChannel socketChannel = session.getSocketChannel();
+        ByteBuffer inputBuffer = session.getFrameDecoder().getBuffer();
+        // bulk read
+        try {
+            int bytesRead = socketChannel.read(inputBuffer);
+            if (bytesRead < 0) {
+                // the client closed the connection
+                return StatusCode.FAIL;
+            }
+            if (bytesRead > 0) {
+                // any inbound traffic proves the client is alive, not only heartbeats
+                this.idleTimeoutWheel.refresh(session, this.now);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Cannot read the input buffer of the given socket channel.");
+            return StatusCode.FAIL;
+        }
+
+        return StatusCode.SUCCESS;
+    }
+}
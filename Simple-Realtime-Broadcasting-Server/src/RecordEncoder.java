@@ -0,0 +1,154 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes records into data response and data response batch msgs of either protocol version. A batch is the header
+ * and the topic id, followed by records which each look like the body of a data response msg without the topic id.
+ * A compact batch is the header, the topic id and the status code of all its records, followed by the records as
+ * varints: the timestamp minus the one of the previous record (0 for the first), then the data as an unsigned int.
+ * With sequence numbers, a data response carries the sequence number after the data, and a batch the sequence number
+ * of its first record after the topic id, the other records follow without gaps. An encoder must only be used by one
+ * thread.
+ */
+public class RecordEncoder {
+
+    /**
+     * The most records a single batch carries, which keeps a batch below 8 KB
+     */
+    public static final int MAX_BATCH_RECORDS = 256;
+
+    private final TimestampEncoder timestampEncoder = new TimestampEncoder();
+
+    private final byte[] timestampBytes = new byte[FieldLength.TIMESTAMP];
+
+    /**
+     * The batch being encoded
+     */
+    private int batchStart;
+
+    private int batchVersion;
+
+    private boolean batchCompact;
+
+    private byte batchStatus;
+
+    private long previousTimestamp;
+
+    /**
+     * @return the length of a record: the status code, the timestamp and the data
+     */
+    public static int recordSize(int version) {
+        return FieldLength.STATUS_CODE + ProtocolVersion.timestampLength(version) + FieldLength.DATA;
+    }
+
+    /**
+     * @return the total length of a data response msg, the msgs of any topic but the default one end with the topic id
+     */
+    public static int dataResponseSize(int version, int features, int topicId) {
+        int size = FieldLength.HEADER + recordSize(version);
+        if ((features & Feature.SEQUENCE_NUMBERS) != 0) {
+            size += FieldLength.SEQUENCE;
+        }
+        return topicId == Topic.DEFAULT_TOPIC_ID ? size : size + FieldLength.TOPIC_ID;
+    }
+
+    /**
+     * @return the largest total length of a data response batch msg of `count` records
+     */
+    public static int maxBatchSize(int version, int features, int count) {
+        int size = FieldLength.HEADER + FieldLength.TOPIC_ID;
+        if ((features & Feature.SEQUENCE_NUMBERS) != 0) {
+            size += FieldLength.SEQUENCE;
+        }
+        if ((features & Feature.COMPACT_DATA) != 0) {
+            // a varint carries 7 bits per byte
+            return size + FieldLength.STATUS_CODE + count * (10 + 5);
+        }
+        return size + count * recordSize(version);
+    }
+
+    public void putRecord(ByteBuffer target, int version, byte status, long timestamp, int data) {
+        target.put(status);
+        if (version >= ProtocolVersion.V2) {
+            target.putLong(timestamp);
+        } else {
+            this.timestampEncoder.encode(timestamp, this.timestampBytes, 0);
+            target.put(this.timestampBytes);
+        }
+        target.putInt(data);
+    }
+
+    /**
+     * @param sequence the sequence number of the record, only sent with `Feature.SEQUENCE_NUMBERS`
+     */
+    public void putDataResponse(ByteBuffer target, int version, int features, byte status, long timestamp, int data, long sequence, int topicId) {
+        target.putInt(dataResponseSize(version, features, topicId));
+        target.putInt(CommandID.DATA_RESP);
+        this.putRecord(target, version, status, timestamp, data);
+        if ((features & Feature.SEQUENCE_NUMBERS) != 0) {
+            target.putLong(sequence);
+        }
+        if (topicId != Topic.DEFAULT_TOPIC_ID) {
+            target.putInt(topicId);
+        }
+    }
+
+    /**
+     * Encode a data response msg into a new buffer in the read mode
+     */
+    public ByteBuffer encodeDataResponse(int version, int features, byte status, long timestamp, int data, long sequence, int topicId) {
+        ByteBuffer outputBuffer = ByteBuffer.allocate(dataResponseSize(version, features, topicId));
+        this.putDataResponse(outputBuffer, version, features, status, timestamp, data, sequence, topicId);
+        // switch to the read mode
+        outputBuffer.flip();
+
+        return outputBuffer;
+    }
+
+    /**
+     * Start a batch of records which all have the given status code, compact if the features say so
+     *
+     * @param firstSequence the sequence number of the first record, only sent with `Feature.SEQUENCE_NUMBERS`
+     */
+    public void startBatch(ByteBuffer target, int version, int features, byte status, long firstSequence, int topicId) {
+        this.batchStart = target.position();
+        this.batchVersion = version;
+        this.batchCompact = (features & Feature.COMPACT_DATA) != 0;
+        this.batchStatus = status;
+        this.previousTimestamp = 0;
+        // the total length is filled in by `finishBatch()`
+        target.putInt(0);
+        target.putInt(this.batchCompact ? CommandID.DATA_RESP_COMPACT : CommandID.DATA_RESP_BATCH);
+        target.putInt(topicId);
+        if ((features & Feature.SEQUENCE_NUMBERS) != 0) {
+            target.putLong(firstSequence);
+        }
+        if (this.batchCompact) {
+            target.put(status);
+        }
+    }
+
+    public void addToBatch(ByteBuffer target, long timestamp, int data) {
+        if (!this.batchCompact) {
+            this.putRecord(target, this.batchVersion, this.batchStatus, timestamp, data);
+            return;
+        }
+        putVarLong(target, timestamp - this.previousTimestamp);
+        putVarLong(target, data & 0xFFFFFFFFL);
+        this.previousTimestamp = timestamp;
+    }
+
+    public void finishBatch(ByteBuffer target) {
+        target.putInt(this.batchStart, target.position() - this.batchStart);
+    }
+
+    /**
+     * Put 7 bits per byte, least significant first, the high bit marks that more bytes follow
+     */
+    private static void putVarLong(ByteBuffer target, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+}
@@ -0,0 +1,153 @@
+import java.lang.invoke.VarHandle;
+
+/**
+ * A pre-allocated single-producer ring of the most recent records, kept in primitive arrays. The sequence of a record
+ * is its index in the history store. Every consumer tracks its own sequence: the history journal gates the producer,
+ * so a record is never overwritten before it has been appended to the store, while the reactors never hold the
+ * producer back and fall back to the store once the ring has moved past them.
+ */
+public class RecordRing {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final long[] timestamps;
+
+    private final int[] data;
+
+    /**
+     * The sequence of the oldest record the ring has ever held
+     */
+    private final long firstSequence;
+
+    /**
+     * The sequence of the next record to be published, every record below it is readable
+     */
+    private volatile long cursor;
+
+    /**
+     * The sequence of the first record the gating consumer has not consumed yet
+     */
+    private volatile long gatingSequence;
+
+    /**
+     * Create a ring holding the most recent records of the store, the next published record continues the store.
+     *
+     * @param capacity rounded down to a power of two
+     */
+    public RecordRing(int capacity, HistoryStore historyStore) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity));
+        this.mask = this.capacity - 1;
+        this.timestamps = new long[this.capacity];
+        this.data = new int[this.capacity];
+        // preload the tail of the store, so the clients reconnecting after a restart are served from memory as well
+        long size = historyStore.size();
+        this.firstSequence = size - Math.min(size, this.capacity - 1);
+        for (long sequence = this.firstSequence; sequence < size; sequence ++) {
+            int slot = (int) (sequence & this.mask);
+            this.timestamps[slot] = historyStore.getTimestamp(sequence);
+            this.data[slot] = historyStore.getData(sequence);
+        }
+        this.cursor = size;
+        this.gatingSequence = size;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public long getCursor() {
+        return this.cursor;
+    }
+
+    /**
+     * Publish a record unless the gating consumer is a full ring behind. Must only be called from one thread at a time.
+     *
+     * @return the sequence of the record, or -1 if the ring is full
+     */
+    public long tryPublish(long timestamp, int data) {
+        long sequence = this.cursor;
+        if (sequence - this.gatingSequence >= this.capacity) {
+            // the history journal has fallen a whole ring behind
+            return -1;
+        }
+        int slot = (int) (sequence & this.mask);
+        this.timestamps[slot] = timestamp;
+        this.data[slot] = data;
+        // the volatile write publishes the slot
+        this.cursor = sequence + 1;
+
+        return sequence;
+    }
+
+    /**
+     * Let the producer reuse the slots below `sequence`. Only called by the gating consumer.
+     */
+    public void release(long sequence) {
+        this.gatingSequence = sequence;
+    }
+
+    /**
+     * Whether the record can still be read from the ring. A non-gating consumer reads the record first and checks
+     * afterwards, since the producer may overwrite the slot at any time.
+     */
+    public boolean isAvailable(long sequence) {
+        // keep the reads of the slot before the read of the cursor
+        VarHandle.acquireFence();
+        long currentCursor = this.cursor;
+        // the producer may be writing the slot of `currentCursor`, which is the slot of `currentCursor - capacity`
+        return sequence < currentCursor && sequence > currentCursor - this.capacity && sequence >= this.firstSequence;
+    }
+
+    /**
+     * Find the first record whose timestamp lies in [fromTimestamp, toTimestamp) and whose data equals the given one,
+     * in the same way as `HistoryStore.find()`.
+     *
+     * @return the sequence of the record, -1 if there is no such record, or -2 if the ring does not reach back to
+     *         `fromTimestamp` and the store has to be searched instead
+     */
+    public long find(long fromTimestamp, long toTimestamp, int data) {
+        long currentCursor = this.cursor;
+        // leave a margin of one slot for the record being published
+        long oldest = Math.max(this.firstSequence, currentCursor - this.capacity + 2);
+        if (oldest >= currentCursor || this.getTimestamp(oldest) >= fromTimestamp) {
+            return -2;
+        }
+        // binary search for the first record not before `fromTimestamp`
+        long low = oldest;
+        long high = currentCursor;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (this.getTimestamp(middle) < fromTimestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        long result = -1;
+        for (long sequence = low; sequence < currentCursor; sequence ++) {
+            if (this.getTimestamp(sequence) >= toTimestamp) {
+                break;
+            }
+            if (this.getData(sequence) == data) {
+                result = sequence;
+                break;
+            }
+        }
+        // the oldest records may have been overwritten during the search
+        if (!this.isAvailable(oldest)) {
+            return -2;
+        }
+
+        return result;
+    }
+
+    public long getTimestamp(long sequence) {
+        return this.timestamps[(int) (sequence & this.mask)];
+    }
+
+    public int getData(long sequence) {
+        return this.data[(int) (sequence & this.mask)];
+    }
+}
@@ -0,0 +1,121 @@
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the replay of a connection into deflated blocks. The msgs of a block are encoded as usual, then deflated
+ * with a sync flush, so every block can be inflated as soon as it arrives while the dictionary carries over from one
+ * block to the next. The buffers and the deflater are reused for every block of a replay, and the compressor is pooled
+ * by `ReplayMemory` for later replays. A replay starts with a reset compressor, which continues the raw deflate stream
+ * of the connection without a dictionary. Only used by the reactor thread which owns the connection.
+ */
+public class ReplayCompressor {
+
+    public static final int MIN_BLOCK_SIZE = 16 << 10;
+
+    public static final int MAX_BLOCK_SIZE = 1 << 20;
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 << 10;
+
+    /**
+     * The native memory of a deflater with the default window and memory level
+     */
+    private static final int DEFLATER_MEMORY = 256 << 10;
+
+    private final Deflater deflater;
+
+    /**
+     * The msgs of the next block before they are deflated
+     */
+    private final ByteBuffer plainBlock;
+
+    /**
+     * The msgs encoded by the history reader at once, then appended to `plainBlock`
+     */
+    private final ByteBuffer encodedMsgs;
+
+    private final int blockSize;
+
+    /**
+     * @param level the compression level, from `Deflater.BEST_SPEED` to `Deflater.BEST_COMPRESSION`
+     * @param blockSize the number of msg bytes per block, at least `MIN_BLOCK_SIZE`
+     * @param encodedCapacity the most bytes a single `HistoryReader.encodeReplay()` call produces
+     */
+    public ReplayCompressor(int level, int blockSize, int encodedCapacity) {
+        this.deflater = new Deflater(level, true);
+        this.plainBlock = ByteBuffer.allocateDirect(blockSize);
+        this.encodedMsgs = ByteBuffer.allocateDirect(encodedCapacity);
+        this.blockSize = blockSize;
+    }
+
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    public int getEncodedCapacity() {
+        return this.encodedMsgs.capacity();
+    }
+
+    /**
+     * @return the capacity of a buffer which holds any deflated block msg of the given block size
+     */
+    public static int blockCapacity(int blockSize) {
+        // deflate grows incompressible data by a few bytes per 16 KB at most
+        return FieldLength.HEADER + FieldLength.PLAIN_LENGTH + blockSize + (blockSize >> 3) + 64;
+    }
+
+    /**
+     * @return the off-heap memory of a compressor, without the buffer of its deflated blocks
+     */
+    public static long memorySize(int blockSize, int encodedCapacity) {
+        return (long) blockSize + encodedCapacity + DEFLATER_MEMORY;
+    }
+
+    /**
+     * Encode the records from `fromIndex` up to `toIndex` into as many msgs as fit into a block and deflate them.
+     *
+     * @param target cleared and left in the read mode holding the deflated block msg, see `blockCapacity()`
+     * @return the number of records in the block, 0 with an empty target if none can be read yet
+     */
+    public int compressBlock(HistoryReader historyReader, long fromIndex, long toIndex, int version, int features, ByteBuffer target) {
+        this.plainBlock.clear();
+        long index = fromIndex;
+        while (index < toIndex && this.plainBlock.remaining() >= this.encodedMsgs.capacity()) {
+            int count = historyReader.encodeReplay(index, toIndex, this.encodedMsgs, version, features);
+            if (count == 0) {
+                // the journal has not caught up yet, the block ends here
+                break;
+            }
+            index += count;
+            this.plainBlock.put(this.encodedMsgs);
+        }
+        if (index == fromIndex) {
+            target.clear();
+            target.flip();
+            return 0;
+        }
+        this.plainBlock.flip();
+        // the total length is filled in once the block is deflated
+        target.clear();
+        target.putInt(0);
+        target.putInt(CommandID.DATA_RESP_DEFLATED);
+        target.putInt(this.plainBlock.remaining());
+        this.deflater.setInput(this.plainBlock);
+        this.deflater.deflate(target, Deflater.SYNC_FLUSH);
+        if (!target.hasRemaining()) {
+            // the flush may be incomplete, which cannot happen with `blockCapacity()`
+            throw new IllegalStateException("The deflated block exceeds its buffer.");
+        }
+        target.putInt(0, target.position());
+        target.flip();
+
+        return (int) (index - fromIndex);
+    }
+
+    /**
+     * Start a new deflate stream at the given level, e.g. when a pooled compressor is taken for another replay
+     */
+    public void reset(int level) {
+        this.deflater.reset();
+        this.deflater.setLevel(level);
+    }
+}
@@ -0,0 +1,94 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * The off-heap memory of the replays of a reactor: a pool of the direct buffers and compressors the replays encode
+ * into, reused from one replay to the next. Every direct allocation is charged to the budget and stays charged while
+ * it is pooled, since the memory of a direct buffer is only freed by the garbage collector, so the pool never holds
+ * more than the budget. A replay which does not fit into it is sent uncompressed from a heap buffer instead. Only
+ * used by the reactor thread.
+ */
+public class ReplayMemory {
+
+    private final long capacity;
+
+    /**
+     * The bytes allocated so far, pooled or in use
+     */
+    private long used;
+
+    /**
+     * The idle direct buffers by capacity
+     */
+    private final HashMap<Integer, ArrayDeque<ByteBuffer>> freeBuffers = new HashMap<>();
+
+    /**
+     * The idle compressors by block size and encoded capacity, see `compressorKey()`
+     */
+    private final HashMap<Long, ArrayDeque<ReplayCompressor>> freeCompressors = new HashMap<>();
+
+    public ReplayMemory(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return a cleared buffer of the given capacity, a direct one if the pool holds one or the budget allows it, or a
+     *         heap buffer otherwise
+     */
+    public ByteBuffer acquireBuffer(int capacity) {
+        ArrayDeque<ByteBuffer> buffers = this.freeBuffers.get(capacity);
+        if (buffers != null && !buffers.isEmpty()) {
+            return buffers.poll().clear();
+        }
+        if (this.tryCharge(capacity)) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        return ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Return a buffer taken from `acquireBuffer()`, a heap buffer is left to the garbage collector
+     */
+    public void releaseBuffer(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            this.freeBuffers.computeIfAbsent(buffer.capacity(), capacity -> new ArrayDeque<>()).add(buffer);
+        }
+    }
+
+    /**
+     * @return a compressor starting a new deflate stream at the given level, or null if the budget does not allow it
+     */
+    public ReplayCompressor acquireCompressor(int level, int blockSize, int encodedCapacity) {
+        ArrayDeque<ReplayCompressor> compressors = this.freeCompressors.get(compressorKey(blockSize, encodedCapacity));
+        if (compressors != null && !compressors.isEmpty()) {
+            ReplayCompressor compressor = compressors.poll();
+            compressor.reset(level);
+            return compressor;
+        }
+        if (this.tryCharge(ReplayCompressor.memorySize(blockSize, encodedCapacity))) {
+            return new ReplayCompressor(level, blockSize, encodedCapacity);
+        }
+        return null;
+    }
+
+    public void releaseCompressor(ReplayCompressor compressor) {
+        this.freeCompressors.computeIfAbsent(compressorKey(compressor.getBlockSize(), compressor.getEncodedCapacity()), key -> new ArrayDeque<>()).add(compressor);
+    }
+
+    public long getUsed() {
+        return this.used;
+    }
+
+    private boolean tryCharge(long bytes) {
+        if (this.used + bytes > this.capacity) {
+            return false;
+        }
+        this.used += bytes;
+        return true;
+    }
+
+    private static long compressorKey(int blockSize, int encodedCapacity) {
+        return (long) blockSize << 32 | encodedCapacity;
+    }
+}
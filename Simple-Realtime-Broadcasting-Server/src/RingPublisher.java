@@ -0,0 +1,60 @@
+/**
+ * Publishes values to the record ring and wakes its consumers up. The ring has a single producer, so the data
+ * sources (the generator and the ingestion connections) take turns.
+ */
+public class RingPublisher implements DataPublisher {
+
+    private final RecordRing recordRing;
+
+    private final HistoryJournal historyJournal;
+
+    /**
+     * The reactors which fan the real-time data out to their clients
+     */
+    private final Reactor[] reactors;
+
+    /**
+     * The timestamp of the last published record, used to keep the records ordered by time
+     */
+    private long lastTimestamp;
+
+    /**
+     * @param reactors may be filled after the publisher is created, but before anything is published
+     */
+    public RingPublisher(RecordRing recordRing, HistoryJournal historyJournal, Reactor[] reactors) {
+        this.recordRing = recordRing;
+        this.historyJournal = historyJournal;
+        this.reactors = reactors;
+    }
+
+    @Override
+    public long publish(int data) {
+        long index;
+        // wait outside the lock, so a reactor publishing at the same time is not blocked
+        while ((index = this.tryPublish(data)) < 0) {
+            // the history journal has fallen a whole ring behind
+            Thread.onSpinWait();
+            Thread.yield();
+        }
+
+        return index;
+    }
+
+    @Override
+    public synchronized long tryPublish(int data) {
+        // keep the records ordered even if the wall clock goes backwards
+        long timestampMicros = Math.max(this.lastTimestamp, Timestamps.currentTimeMicros());
+        // publish to the ring and wake the consumers up
+        long index = this.recordRing.tryPublish(timestampMicros, data);
+        if (index < 0) {
+            return -1;
+        }
+        this.lastTimestamp = timestampMicros;
+        this.historyJournal.recordsPublished();
+        for (Reactor reactor : this.reactors) {
+            reactor.recordsPublished();
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The server settings, read from system properties such as `-Dsrb.slowConsumer.policy=conflate`
+ */
+public class ServerConfig {
+
+    private static final String PREFIX = "srb.";
+
+    /**
+     * See `SlowConsumerPolicy`
+     */
+    private int slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT;
+
+    /**
+     * The maximum number of real-time msgs queued for a single client before the slow consumer policy applies
+     */
+    private int maxBacklog = 4096;
+
+    /**
+     * The number of reactor threads sharing the connections, one per core by default
+     */
+    private int reactorThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of random integers generated per second, 0 turns the generator off
+     */
+    private long generatorRate = 4;
+
+    /**
+     * Whether clients on other hosts may publish data, otherwise only local clients may
+     */
+    private boolean remotePublishAllowed = false;
+
+    /**
+     * The memory budget in bytes of the recent records kept in the ring, which also serves resumes and replays
+     */
+    private long hotTailBytes = 16L << 20;
+
+    /**
+     * A connection is closed when nothing was received from it for this many milliseconds
+     */
+    private long idleTimeoutMillis = 12000;
+
+    /**
+     * The largest deflated block a client may ask for, a smaller block size is used instead
+     */
+    private int maxReplayBlockSize = 256 << 10;
+
+    /**
+     * The off-heap memory in bytes each reactor may hold for the buffers and compressors of its replays, see
+     * `ReplayMemory`
+     */
+    private long replayMemoryBytes = 64L << 20;
+
+    /**
+     * See `FsyncPolicy`
+     */
+    private int fsyncPolicy = FsyncPolicy.INTERVAL;
+
+    private long fsyncIntervalMillis = 1000;
+
+    private long fsyncRecords = 1000;
+
+    /**
+     * The names of the topics served besides the default one, in the order of their topic ids
+     */
+    private List<String> topicNames = new ArrayList<>();
+
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        String policyName = System.getProperty(PREFIX + "slowConsumer.policy");
+        if (policyName != null) {
+            int policy = SlowConsumerPolicy.parse(policyName);
+            if (policy == StatusCode.FAIL) {
+                System.err.println("Unknown slow consumer policy \"" + policyName + "\", using \"" + SlowConsumerPolicy.toString(config.slowConsumerPolicy) + "\" instead.");
+            } else {
+                config.slowConsumerPolicy = policy;
+            }
+        }
+        // one msg may be partially written and cannot be dropped
+        config.maxBacklog = Math.max(2, Integer.getInteger(PREFIX + "slowConsumer.maxBacklog", config.maxBacklog));
+        config.reactorThreads = Math.max(1, Integer.getInteger(PREFIX + "reactor.threads", config.reactorThreads));
+        config.generatorRate = Math.max(0, Long.getLong(PREFIX + "generator.rate", config.generatorRate));
+        config.remotePublishAllowed = Boolean.parseBoolean(System.getProperty(PREFIX + "publish.allowRemote", String.valueOf(config.remotePublishAllowed)));
+        config.hotTailBytes = Math.max(2 * HistoryStore.RECORD_SIZE, Long.getLong(PREFIX + "hotTail.bytes", config.hotTailBytes));
+        config.idleTimeoutMillis = Math.max(1, Long.getLong(PREFIX + "idleTimeout.millis", config.idleTimeoutMillis));
+        config.maxReplayBlockSize = Math.max(ReplayCompressor.MIN_BLOCK_SIZE, Math.min(ReplayCompressor.MAX_BLOCK_SIZE, Integer.getInteger(PREFIX + "replay.maxBlockSize", config.maxReplayBlockSize)));
+        config.replayMemoryBytes = Math.max(0, Long.getLong(PREFIX + "replay.memory.bytes", config.replayMemoryBytes));
+        String fsyncPolicyName = System.getProperty(PREFIX + "journal.fsync");
+        if (fsyncPolicyName != null) {
+            int policy = FsyncPolicy.parse(fsyncPolicyName);
+            if (policy == StatusCode.FAIL) {
+                System.err.println("Unknown fsync policy \"" + fsyncPolicyName + "\", using \"" + FsyncPolicy.toString(config.fsyncPolicy) + "\" instead.");
+            } else {
+                config.fsyncPolicy = policy;
+            }
+        }
+        config.fsyncIntervalMillis = Math.max(1, Long.getLong(PREFIX + "journal.fsyncInterval.millis", config.fsyncIntervalMillis));
+        config.fsyncRecords = Math.max(1, Long.getLong(PREFIX + "journal.fsyncRecords", config.fsyncRecords));
+        // a comma separated list, e.g. `-Dsrb.topics=prices,trades`
+        for (String topicName : System.getProperty(PREFIX + "topics", "").split(",")) {
+            topicName = topicName.trim();
+            if (topicName.isEmpty() || topicName.equals(Topic.DEFAULT_TOPIC_NAME) || config.topicNames.contains(topicName)) {
+                continue;
+            }
+            if (!Topic.isValidName(topicName)) {
+                System.err.println("Invalid topic name \"" + topicName + "\", the topic is not served.");
+                continue;
+            }
+            config.topicNames.add(topicName);
+        }
+
+        return config;
+    }
+
+    public int getSlowConsumerPolicy() {
+        return this.slowConsumerPolicy;
+    }
+
+    public int getMaxBacklog() {
+        return this.maxBacklog;
+    }
+
+    public int getReactorThreads() {
+        return this.reactorThreads;
+    }
+
+    public long getGeneratorRate() {
+        return this.generatorRate;
+    }
+
+    public boolean isRemotePublishAllowed() {
+        return this.remotePublishAllowed;
+    }
+
+    /**
+     * @return the number of records which fit into the memory budget of the hot tail
+     */
+    public int getRingCapacity() {
+        return (int) Math.min(1 << 30, this.hotTailBytes / HistoryStore.RECORD_SIZE);
+    }
+
+    public long getIdleTimeoutMillis() {
+        return this.idleTimeoutMillis;
+    }
+
+    public int getMaxReplayBlockSize() {
+        return this.maxReplayBlockSize;
+    }
+
+    public long getReplayMemoryBytes() {
+        return this.replayMemoryBytes;
+    }
+
+    public int getFsyncPolicy() {
+        return this.fsyncPolicy;
+    }
+
+    public long getFsyncIntervalMillis() {
+        return this.fsyncIntervalMillis;
+    }
+
+    public long getFsyncRecords() {
+        return this.fsyncRecords;
+    }
+
+    public List<String> getTopicNames() {
+        return this.topicNames;
+    }
+}
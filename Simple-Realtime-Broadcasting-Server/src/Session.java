@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Everything the server knows about a connection: its buffers, liveness, subscriptions and lag statistics. It is
+ * attached to the selection key of the connection, so the read and write paths need no lookups. Only used by the
+ * reactor thread which owns the connection, so every transition is a plain field update.
+ */
+public class Session {
+
+    private static final int INPUT_BUFFER_SIZE = 1 << 10;
+
+    /**
+     * The largest msg a client may send, the input buffer only grows beyond its initial size for such msgs
+     */
+    private static final int MAX_FRAME_LENGTH = 64 << 10;
+
+    private final SelectionKey key;
+
+    /**
+     * Holds the input buffer and drains the complete msgs from it
+     */
+    private final FrameDecoder frameDecoder;
+
+    /**
+     * The pending output, including the replay cursor and the lag statistics
+     */
+    private final OutboundQueue outboundQueue;
+
+    /**
+     * Whether the client may publish data to the server
+     */
+    private boolean publisher;
+
+    /**
+     * The body offset up to which the publish msg at the head of the input buffer has been published, 0 if none is
+     * stalled. A stalled msg waits for room in the record ring, and nothing else is read from the client meanwhile.
+     */
+    private int publishOffset;
+
+    /**
+     * The protocol version and features negotiated with the client, see `ProtocolVersion` and `Feature`
+     */
+    private int protocolVersion = ProtocolVersion.V1;
+
+    private int features;
+
+    /**
+     * The deflate level and the block size of the replay, only meaningful with `Feature.COMPRESSED_REPLAY`
+     */
+    private int compressionLevel;
+
+    private int blockSize;
+
+    /**
+     * The position of the session in the idle timeout wheel of its reactor, the tick is -1 if it is not scheduled
+     */
+    private long wheelTick = -1;
+
+    private Session wheelPrevious;
+
+    private Session wheelNext;
+
+    /**
+     * `SessionState.CONNECTED` or `SessionState.CLOSING`, the other states belong to the subscriptions
+     */
+    private int state = SessionState.CONNECTED;
+
+    /**
+     * The subscriptions of the session indexed by topic id, null for the topics it is not subscribed to
+     */
+    private final Subscription[] subscriptions;
+
+    /**
+     * The subscription whose history is being replayed, the outbound queue replays one topic at a time
+     */
+    private Subscription replayingSubscription;
+
+    /**
+     * The subscriptions waiting for their replay, in the order they asked for it
+     */
+    private final ArrayDeque<Subscription> pendingReplays = new ArrayDeque<>();
+
+    public Session(SelectionKey key, ServerConfig config, int topicCount, ReplayMemory replayMemory) {
+        this.key = key;
+        this.subscriptions = new Subscription[topicCount];
+        this.frameDecoder = new FrameDecoder(INPUT_BUFFER_SIZE, MAX_FRAME_LENGTH);
+        this.outboundQueue = new OutboundQueue(config.getSlowConsumerPolicy(), config.getMaxBacklog(), replayMemory);
+    }
+
+    public SelectionKey getKey() {
+        return this.key;
+    }
+
+    public SocketChannel getSocketChannel() {
+        return (SocketChannel) this.key.channel();
+    }
+
+    public FrameDecoder getFrameDecoder() {
+        return this.frameDecoder;
+    }
+
+    public OutboundQueue getOutboundQueue() {
+        return this.outboundQueue;
+    }
+
+    public boolean isPublisher() {
+        return this.publisher;
+    }
+
+    public void setPublisher(boolean publisher) {
+        this.publisher = publisher;
+    }
+
+    public int getPublishOffset() {
+        return this.publishOffset;
+    }
+
+    public void setPublishOffset(int publishOffset) {
+        this.publishOffset = publishOffset;
+    }
+
+    public boolean isPublishStalled() {
+        return this.publishOffset != 0;
+    }
+
+    public int getProtocolVersion() {
+        return this.protocolVersion;
+    }
+
+    public int getFeatures() {
+        return this.features;
+    }
+
+    public int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    /**
+     * Use the given protocol version and features from now on. Must only be called before the first replay.
+     *
+     * @param compressionLevel the deflate level of the replay, ignored without `Feature.COMPRESSED_REPLAY`
+     * @param blockSize the block size of the replay, ignored without `Feature.COMPRESSED_REPLAY`
+     */
+    public void setProtocol(int protocolVersion, int features, int compressionLevel, int blockSize) {
+        this.protocolVersion = protocolVersion;
+        this.features = features;
+        this.compressionLevel = compressionLevel;
+        this.blockSize = blockSize;
+        this.outboundQueue.setReplayEncoding(protocolVersion, features, compressionLevel, blockSize);
+    }
+
+    public boolean isBatched() {
+        return (this.features & Feature.BATCHED_DATA) != 0;
+    }
+
+    public boolean isCompact() {
+        return (this.features & Feature.COMPACT_DATA) != 0;
+    }
+
+    public boolean isReplayCompressed() {
+        return (this.features & Feature.COMPRESSED_REPLAY) != 0;
+    }
+
+    public boolean isSequenced() {
+        return (this.features & Feature.SEQUENCE_NUMBERS) != 0;
+    }
+
+    /**
+     * @return whether the session has subscribed to any topic
+     */
+    public boolean hasSubscriptions() {
+        for (Subscription subscription : this.subscriptions) {
+            if (subscription != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public long getWheelTick() {
+        return this.wheelTick;
+    }
+
+    public void setWheelTick(long wheelTick) {
+        this.wheelTick = wheelTick;
+    }
+
+    public Session getWheelPrevious() {
+        return this.wheelPrevious;
+    }
+
+    public void setWheelPrevious(Session wheelPrevious) {
+        this.wheelPrevious = wheelPrevious;
+    }
+
+    public Session getWheelNext() {
+        return this.wheelNext;
+    }
+
+    public void setWheelNext(Session wheelNext) {
+        this.wheelNext = wheelNext;
+    }
+
+    public int getState() {
+        return this.state;
+    }
+
+    public Subscription[] getSubscriptions() {
+        return this.subscriptions;
+    }
+
+    /**
+     * @return the subscription to the given topic, or null if the session is not subscribed to it
+     */
+    public Subscription getSubscription(int topicId) {
+        return this.subscriptions[topicId];
+    }
+
+    public void addSubscription(Subscription subscription) {
+        this.subscriptions[subscription.getTopicId()] = subscription;
+    }
+
+    /**
+     * Drop the subscription. A replay in progress stops at the end of its current wire frame, a waiting one is never
+     * started.
+     */
+    public void removeSubscription(Subscription subscription) {
+        subscription.close();
+        this.subscriptions[subscription.getTopicId()] = null;
+        if (this.replayingSubscription == subscription) {
+            this.outboundQueue.stopReplay();
+        } else {
+            this.pendingReplays.remove(subscription);
+        }
+    }
+
+    /**
+     * Replay the history of the subscription starting from `fromIndex`, once the replay of any other topic is done.
+     *
+     * @param firstFrame an optional msg sent before the replayed wire frames
+     */
+    public void replay(Subscription subscription, long fromIndex, ByteBuffer firstFrame) {
+        if (firstFrame != null) {
+            // the whole history follows, and the queued real-time msgs of the topic would arrive after its first msg
+            this.outboundQueue.discardLive(subscription);
+        }
+        if (this.replayingSubscription == null) {
+            this.replayingSubscription = subscription;
+            this.outboundQueue.startReplay(subscription.getTopicFanOut().getHistoryReader(), fromIndex, firstFrame);
+            return;
+        }
+        if (this.replayingSubscription == subscription) {
+            // the replay in progress catches up with the history anyway
+            return;
+        }
+        subscription.setPendingReplay(fromIndex, firstFrame);
+        this.pendingReplays.add(subscription);
+    }
+
+    /**
+     * Write the pending output. A subscription goes live once its replay has caught up with the history, then the
+     * next waiting replay is started.
+     */
+    public int flush() {
+        while (true) {
+            int result = this.outboundQueue.flush(this.getSocketChannel());
+            if (result != StatusCode.SUCCESS || this.replayingSubscription == null) {
+                return result;
+            }
+            this.replayingSubscription.replayFinished(this.outboundQueue.getReplayedIndex());
+            this.replayingSubscription = this.pendingReplays.poll();
+            if (this.replayingSubscription == null) {
+                return StatusCode.SUCCESS;
+            }
+            Subscription subscription = this.replayingSubscription;
+            this.outboundQueue.startReplay(subscription.getTopicFanOut().getHistoryReader(), subscription.getPendingFromIndex(), subscription.getPendingFirstFrame());
+            subscription.setPendingReplay(0, null);
+        }
+    }
+
+    /**
+     * any state -> CLOSING, and close the socket channel. Calling it again does nothing.
+     *
+     * @return whether the session was not closing yet
+     */
+    public boolean close() {
+        if (this.state == SessionState.CLOSING) {
+            return false;
+        }
+        this.state = SessionState.CLOSING;
+        // closing the channel cancels the key as well
+        try {
+            this.getSocketChannel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Cannot close the given socket channel: " + e.getMessage());
+        }
+        this.outboundQueue.release();
+
+        return true;
+    }
+}
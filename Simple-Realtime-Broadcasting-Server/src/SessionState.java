@@ -0,0 +1,26 @@
+/**
+ * The lifecycle of a client connection, CONNECTED -> CLOSING, and of each of its subscriptions to a topic,
+ * REPLAYING -> LIVE -> CLOSING. A live subscription falls back to REPLAYING if it has missed records.
+ */
+public class SessionState {
+
+    /**
+     * Accepted and not closed yet
+     */
+    public static final int CONNECTED = 0;
+
+    /**
+     * The history data is being replayed from the history store
+     */
+    public static final int REPLAYING = 1;
+
+    /**
+     * The replay has caught up, real-time data is queued as it is published
+     */
+    public static final int LIVE = 2;
+
+    /**
+     * The connection is being torn down
+     */
+    public static final int CLOSING = 3;
+}
@@ -1,39 +1,42 @@
 import java.io.*;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.*;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 public class SimpleRealtimeBroadcastingServer {
 
     private ServerSocketChannel serverSocketChannel;
 
+    private ServerConfig config;
+
     private Selector selector;
 
     private int portNumber = 11451;
 
-    private ConcurrentHashMap<SocketChannel, BufferPair> socketChannel2BufferPair;
-
-    private ConcurrentHashMap<SocketChannel, Date> lastHeartBeatTime;
+    /**
+     * The directory of the binary history store
+     */
+    private String historyDirectoryPath = "server_data";
 
-    private String filePath = "server_data.txt";
+    /**
+     * The text data file written by older versions of the server, imported once into an empty history store
+     */
+    private String legacyFilePath = "server_data.txt";
 
-    private CopyOnWriteArraySet<SocketChannel> historyDataSent;
+    /**
+     * The topics indexed by topic id, the default topic comes first
+     */
+    private Topic[] topics;
 
-    private CopyOnWriteArraySet<SocketChannel> newHistoryDataSent;
+    /**
+     * The worker reactors which own the accepted connections
+     */
+    private Reactor[] reactors;
 
-    private void closeAllSocketChannels() {
-        Set<SocketChannel> socketChannelSet = socketChannel2BufferPair.keySet();
-        Iterator<SocketChannel> iterator = socketChannelSet.iterator();
-        while (iterator.hasNext()) {
-            SocketChannel socketChannel = iterator.next();
-            this.closeASocketChannel(socketChannel);
-        }
-    }
+    /**
+     * The reactor which receives the next accepted connection
+     */
+    private int nextReactor;
 
     private void closeTheServerSocketChannel() {
         if (this.serverSocketChannel != null) {
@@ -61,11 +64,6 @@ public class SimpleRealtimeBroadcastingServer {
         if (socketChannel != null) {
             try {
                 socketChannel.close();
-                this.socketChannel2BufferPair.remove(socketChannel);
-                this.lastHeartBeatTime.remove(socketChannel);
-                this.historyDataSent.remove(socketChannel);
-                this.newHistoryDataSent.remove(socketChannel);
-                this.lastHeartBeatTime.remove(socketChannel);
             } catch (IOException e) {
                 e.printStackTrace();
                 System.err.println("Cannot close the given socket channel: " + e.getMessage());
@@ -73,7 +71,8 @@ public class SimpleRealtimeBroadcastingServer {
         }
     }
 
-    public SimpleRealtimeBroadcastingServer() {
+    public SimpleRealtimeBroadcastingServer(ServerConfig config) {
+        this.config = config;
         // open socket channel
         try {
             this.serverSocketChannel = ServerSocketChannel.open();
@@ -103,7 +102,7 @@ public class SimpleRealtimeBroadcastingServer {
             this.closeTheServerSocketChannel();
             System.exit(1);
         }
-        // open a selector
+        // open the acceptor selector
         try {
             this.selector = Selector.open();
         } catch (IOException e) {
@@ -121,28 +120,88 @@ public class SimpleRealtimeBroadcastingServer {
             this.closeTheSelector();
             System.exit(1);
         }
-        // initialize the `socketChannel2BufferPair` and `lastHeartBeatTime` ConcurrentHashMap
-        this.lastHeartBeatTime = new ConcurrentHashMap<>();
-        this.socketChannel2BufferPair = new ConcurrentHashMap<>();
-        // initialize `historyDataSent` and `newHistoryDataSent` sets.
-        this.historyDataSent = new CopyOnWriteArraySet<>();
-        this.newHistoryDataSent = new CopyOnWriteArraySet<>();
+        // open the history store of the default topic
+        HistoryStore historyStore;
+        while (true) {
+            try {
+                historyStore = new HistoryStore(this.historyDirectoryPath);
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Cannot open the history store. Please assign another history directory to the server: ");
+                Scanner scanner = new Scanner(System.in);
+                this.historyDirectoryPath = scanner.nextLine();
+            }
+        }
+        // import the old text data file
+        try {
+            long imported = historyStore.importTextFile(this.legacyFilePath);
+            if (imported > 0) {
+                System.out.println(imported + " records were imported from \"" + this.legacyFilePath + "\"");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to import the old server data file: " + e.getMessage());
+        }
+        // the publishers of the topics wake the reactors up
+        this.reactors = new Reactor[this.config.getReactorThreads()];
+        List<String> topicNames = this.config.getTopicNames();
+        this.topics = new Topic[topicNames.size() + 1];
+        this.topics[Topic.DEFAULT_TOPIC_ID] = new Topic(Topic.DEFAULT_TOPIC_ID, Topic.DEFAULT_TOPIC_NAME, historyStore, this.config, this.reactors);
+        // open the history stores of the other topics
+        for (int id = 1; id < this.topics.length; id ++) {
+            String name = topicNames.get(id - 1);
+            try {
+                HistoryStore topicHistoryStore = new HistoryStore(Topic.historyDirectoryPath(this.historyDirectoryPath, id, name), id);
+                this.topics[id] = new Topic(id, name, topicHistoryStore, this.config, this.reactors);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Cannot open the history store of the topic \"" + name + "\": " + e.getMessage());
+                this.closeTheSelector();
+                this.closeTheServerSocketChannel();
+                System.exit(1);
+            }
+        }
+        // open the worker reactors
+        for (int i = 0; i < this.reactors.length; i ++) {
+            try {
+                this.reactors[i] = new Reactor(this.config, this.topics);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Failed to open the reactor selector: " + e.getMessage());
+                this.closeTheSelector();
+                this.closeTheServerSocketChannel();
+                System.exit(1);
+            }
+        }
 
         System.out.println("The server started successfully on the port " + this.portNumber);
     }
 
     public void launch() {
-        // start data generator thread
-        Thread dataGeneratorThread = new Thread(new RandomDataGenerator(100, this.historyDataSent, this.newHistoryDataSent, this.socketChannel2BufferPair, this.lastHeartBeatTime));
-        dataGeneratorThread.setDaemon(true);
-        dataGeneratorThread.start();
-        // start heart beat monitor thread
-        Thread heartbeatMonitor = new Thread(new HeartBeatMonitor(this.lastHeartBeatTime, this.historyDataSent, this.newHistoryDataSent, this.socketChannel2BufferPair));
-        heartbeatMonitor.setDaemon(true);
-        heartbeatMonitor.start();
-        // start pushing the history data
+        // start the reactor threads
+        for (int i = 0; i < this.reactors.length; i ++) {
+            Thread reactorThread = new Thread(this.reactors[i], "reactor-" + i);
+            reactorThread.setDaemon(true);
+            reactorThread.start();
+        }
+        // start a history journal thread per topic
+        for (Topic topic : this.topics) {
+            Thread journalThread = new Thread(topic.getHistoryJournal(), "history-journal-" + topic.getName());
+            journalThread.setDaemon(true);
+            journalThread.start();
+        }
+        // store what is still in the rings and force it to the disk when the server is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "shutdown"));
+        // start data generator thread, it feeds the default topic
+        if (this.config.getGeneratorRate() > 0) {
+            Thread dataGeneratorThread = new Thread(new RandomDataGenerator(100, this.config.getGeneratorRate(), this.topics[Topic.DEFAULT_TOPIC_ID].getDataPublisher()));
+            dataGeneratorThread.setDaemon(true);
+            dataGeneratorThread.start();
+        }
+        // accept new connections and hand them over to the reactors
         while (true) {
-            // select the socket which has the new event
+            // select the server socket if there is a new connection
             try {
                 this.selector.select();
             } catch (IOException e) {
@@ -164,286 +223,21 @@ public class SimpleRealtimeBroadcastingServer {
             while (iterator.hasNext()) {
                 SelectionKey key = iterator.next();
                 iterator.remove();
-                if (!key.isValid()) {
-                    continue;
-                }
-                if (key.isAcceptable()) {
+                if (key.isValid() && key.isAcceptable()) {
                     this.accept(key);
-                } else if (key.isReadable()) {
-                    // perform read operation on the given socket
-                    if (this.read(key) == StatusCode.FAIL) {
-                        // close the socket if fail
-                        this.closeASocketChannel((SocketChannel) key.channel());
-                    }
-                    if (this.process(key) == StatusCode.FAIL) {
-                        // close the socket if fail
-                        this.closeASocketChannel((SocketChannel) key.channel());
-                    }
                 }
             }
         }
     }
 
-    private int sendHistoryData(SocketChannel socketChannel) {
-        // open the file in read mode
-        BufferedReader reader = null;
-        while (true) {
-            try {
-                reader = new BufferedReader(new FileReader(this.filePath));
-                break;
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-                System.err.println("Cannot find the server data file in the given path. Please locate the data file manually: ");
-                Scanner scanner = new Scanner(System.in);
-                this.filePath = scanner.nextLine();
-            }
-        }
-        // send the history data to the client
-        try {
-            String currentLine = reader.readLine();
-            for (int currentLineNumber = 0; currentLine != null; currentLineNumber ++) {
-                // prepare the msg header data
-                int serverTotalLength = FieldLength.HEADER + FieldLength.TIMESTAMP + FieldLength.DATA;
-                int serverCommandID = CommandID.DATA_RESP;
-                // prepare the msg body data
-                String[] parts = currentLine.split("::");
-                String serverTimestamp = parts[0];
-                int serverData = Integer.parseInt(parts[1]);
-                // get the output buffer
-                if (!socketChannel2BufferPair.containsKey(socketChannel)) {
-                    socketChannel2BufferPair.put(socketChannel, new BufferPair());
-                }
-                ByteBuffer outputBuffer = socketChannel2BufferPair.get(socketChannel).getOutputBuffer();
-                if (outputBuffer == null) {
-                    System.err.println("Failed to allocate output buffer for the current socket channel. Please check the memory usage or restart your server.");
-                    reader.close();
-                    return StatusCode.FAIL;
-                }
-                // encapsulate the msg
-                outputBuffer.putInt(serverTotalLength);
-                outputBuffer.putInt(serverCommandID);
-                outputBuffer.put(serverTimestamp.getBytes(StandardCharsets.US_ASCII));
-                outputBuffer.putInt(serverData);
-                // switch to read mode
-                outputBuffer.flip();
-                // send the data
-                try {
-                    socketChannel.write(outputBuffer);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    System.err.println("Failed to send the data on the current socket channel.");
-                    this.closeASocketChannel(socketChannel);
-                }
-                // switch to the write mode
-                outputBuffer.compact();
-                // read a new line
-                currentLine = reader.readLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println("An error occurred when attempting to read a line from the file.");
-            // close the BufferedReader
-            try {
-                reader.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                System.err.println("Cannot close the current BufferedReader.");
-            }
-
-            return StatusCode.FAIL;
+    /**
+     * Run by the shutdown hook: the journals store the records left in the rings and force them to the disk
+     */
+    private void shutdown() {
+        for (Topic topic : this.topics) {
+            topic.getHistoryJournal().shutdown();
         }
-        // add the socket to the `newHistoryDataSent` set
-        this.newHistoryDataSent.add(socketChannel);
-        // close the BufferedReader
-        try {
-            reader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println("Cannot close the current BufferedReader.");
-        }
-
-        return StatusCode.SUCCESS;
-    }
-
-    private int process(SelectionKey key) {
-        // get the socket channel
-        SocketChannel socketChannel = (SocketChannel) key.channel();
-        // get the input buffer
-        // error detection
-        if (!this.socketChannel2BufferPair.containsKey(socketChannel))
-        {
-            // should never happen
-            System.err.println("The given socket channel does NOT have a corresponding BufferPair.");
-            this.socketChannel2BufferPair.put(socketChannel, new BufferPair());
-            return StatusCode.FAIL;
-        }
-        ByteBuffer inputBuffer;
-        // error detection
-        if ((inputBuffer = this.socketChannel2BufferPair.get(socketChannel).getInputBuffer()) == null ) {
-            // should never happen
-            System.err.println("The given socket cannot be allocated a input buffer. Check your memory usage or restart the server.");
-            return StatusCode.FAIL;
-        }
-
-        // test whether the msg header is complete
-        if (inputBuffer.remaining() < FieldLength.HEADER) {
-            // switch back to the write mode
-            inputBuffer.compact();
-
-            return StatusCode.NOT_COMPLETE;
-        }
-        // parse the header
-        int clientTotalLength = inputBuffer.getInt();
-        int clientCommandID = inputBuffer.getInt();
-        // test whether the msg body is complete
-        int bodyLength = clientTotalLength - FieldLength.HEADER;
-        if (inputBuffer.remaining() < bodyLength) {
-            // put the msg header back to the `inputBuffer`
-            inputBuffer.position(inputBuffer.position() - FieldLength.HEADER);
-            // switch back to the read mode
-            inputBuffer.compact();
-
-            return StatusCode.NOT_COMPLETE;
-        }
-        // read the msg body into a byte array
-        byte[] body = new byte[bodyLength];
-        inputBuffer.get(body, 0, bodyLength);
-        // switch to the write mode
-        inputBuffer.compact();
-        // select the corresponding operation by `commandID`
-        switch (clientCommandID) {
-            case CommandID.DATA_REQ: {
-                // parse the msg body
-                // parse the timestamp field
-                byte[] timestampBytes = new byte[FieldLength.TIMESTAMP];
-                System.arraycopy(body, 0, timestampBytes, 0, FieldLength.TIMESTAMP);
-                String lastTimestamp = new String(timestampBytes, StandardCharsets.US_ASCII);
-                // parse the data field
-                byte[] dataBytes = new byte[FieldLength.DATA];
-                System.arraycopy(body, FieldLength.TIMESTAMP, dataBytes, 0, FieldLength.DATA);
-                int lastData = ByteBuffer.wrap(dataBytes).getInt();
-                // send history data
-                if(this.sendHistoryData(socketChannel) == StatusCode.FAIL)
-                    return StatusCode.FAIL;
-
-                break;
-            }
-            case CommandID.HEART_BEAT: {
-                this.updateTheLastHeartBeatTime(socketChannel);
-                try {
-                    System.out.println("[" + new Date() + "] " + "A heartbeat was received from " + socketChannel.getRemoteAddress());
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    System.err.println("[" + new Date() + "] " + "A heartbeat was received but we cannot get the remote address.");
-                }
-                break;
-            }
-            default: {
-                // should never happen
-                return StatusCode.FAIL;
-            }
-        }
-
-        return StatusCode.SUCCESS;
-    }
-
-    private void updateTheLastHeartBeatTime(SocketChannel socketChannel) {
-        this.lastHeartBeatTime.put(socketChannel, new Date());
-    }
-
-    private int matchHistoryData(String clientTimestamp, int clientData) {
-        // open the file with FileReader until succeeded
-        BufferedReader reader;
-        while (true) {
-            try {
-                reader = new BufferedReader(new FileReader(this.filePath));
-                break;
-            } catch (IOException e) {
-                e.printStackTrace();
-                System.err.println("Cannot find the server data file in the given path. Please locate the data file manually: ");
-                Scanner scanner = new Scanner(System.in);
-                this.filePath = scanner.nextLine();
-            }
-        }
-        // iterate through the entire file line by line
-        try {
-            String line = reader.readLine();
-            int lineNumber = 0;
-            while (line != null) {
-                String[] parts = line.split("::");
-                String serverTimestamp = parts[0];
-                String serverDataString = parts[1];
-                int serverData = Integer.parseInt(serverDataString);
-                if (clientTimestamp.equals(serverTimestamp) && clientData == serverData)
-                {
-                    // close the BufferedReader
-                    try {
-                        reader.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        System.err.println("Cannot close the current BufferedReader.");
-                    }
-                    return lineNumber;
-                }
-                else lineNumber ++;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("An error occurred when attempting to read a line from the data file.");
-            // close the BufferedReader
-            try {
-                reader.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                System.err.println("Cannot close the current BufferedReader.");
-            }
-
-            return StatusCode.FAIL;
-        }
-        // close the BufferedReader
-        try {
-            reader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println("Cannot close the current BufferedReader.");
-        }
-
-        return StatusCode.FAIL;
-    }
-
-    private int read(SelectionKey key) {
-        // get the socket channel from the selection key
-        SocketChannel socketChannel = (SocketChannel) key.channel();
-        // error detection
-        if (!this.socketChannel2BufferPair.containsKey(socketChannel))
-        {
-            // should never happen
-            System.err.println("The given socket channel does NOT have a corresponding BufferPair.");
-            this.socketChannel2BufferPair.put(socketChannel, new BufferPair());
-        }
-        ByteBuffer inputBuffer;
-        // error detection
-        if ((inputBuffer = this.socketChannel2BufferPair.get(socketChannel).getInputBuffer()) == null ) {
-            // should never happen
-            System.err.println("The given socket cannot be allocated a input buffer. Check your memory usage or restart the server.");
-            return StatusCode.FAIL;
-        }
-        // bulk read
-        try {
-            socketChannel.read(inputBuffer);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println("Cannot read the input buffer of the given socket channel.");
-        }
-        // switch the input buffer to the read mode
-        inputBuffer.flip();
-
-        return StatusCode.SUCCESS;
-    }
-
-    private ByteBuffer createAByteBuffer() {
-        int bufferSize = 1 << 10;
-        return ByteBuffer.allocate(bufferSize);
+        System.out.println("The history was forced to the disk.");
     }
 
     private void accept(SelectionKey key) {
@@ -466,21 +260,28 @@ public class SimpleRealtimeBroadcastingServer {
             this.closeASocketChannel(socketChannel);
             return;
         }
-        // register the socket channel to the server selector
-        try {
-            socketChannel.register(this.selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-        } catch (ClosedChannelException e) {
-            e.printStackTrace();
-            System.err.println("Cannot register the given socket channel to the server selector since the socket channel has been closed unexpectedly: " +e.getMessage());
+        // hand the socket channel over to the reactors in turn
+        this.reactors[this.nextReactor].register(socketChannel);
+        this.nextReactor = (this.nextReactor + 1) % this.reactors.length;
+    }
+
+    /**
+     * Feed values into a topic of the server, e.g. when it is embedded into another application
+     *
+     * @return the publisher of the topic, or null if the server does not serve the topic
+     */
+    public DataPublisher getDataPublisher(String topicName) {
+        for (Topic topic : this.topics) {
+            if (topic.getName().equals(topicName)) {
+                return topic.getDataPublisher();
+            }
         }
-        // add the new socket channel to the hash map
-        this.socketChannel2BufferPair.put(socketChannel, new BufferPair());
-        // add the new socket channel to the `lastHeartBeatTime` hash map
-        this.lastHeartBeatTime.put(socketChannel, new Date());
+
+        return null;
     }
 
     public static void main(String args[]) {
-        SimpleRealtimeBroadcastingServer server = new SimpleRealtimeBroadcastingServer();
+        SimpleRealtimeBroadcastingServer server = new SimpleRealtimeBroadcastingServer(ServerConfig.fromSystemProperties());
         server.launch();
     }
 }
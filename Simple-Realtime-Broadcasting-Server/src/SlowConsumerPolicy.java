@@ -0,0 +1,47 @@
+/**
+ * What the server does when a client cannot keep up with the real-time data
+ */
+public class SlowConsumerPolicy {
+
+    /**
+     * Drop the oldest queued msg to make room for the new one
+     */
+    public static final int DROP_OLDEST = 0;
+
+    /**
+     * Replace all queued msgs with the latest one, the latest value supersedes the older ones
+     */
+    public static final int CONFLATE = 1;
+
+    /**
+     * Close the connection, the client resumes from the history once it reconnects
+     */
+    public static final int DISCONNECT = 2;
+
+    /**
+     * @return the policy with the given name, or `StatusCode.FAIL` if there is no such policy
+     */
+    public static int parse(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "drop-oldest":
+                return DROP_OLDEST;
+            case "conflate":
+                return CONFLATE;
+            case "disconnect":
+                return DISCONNECT;
+            default:
+                return StatusCode.FAIL;
+        }
+    }
+
+    public static String toString(int policy) {
+        switch (policy) {
+            case DROP_OLDEST:
+                return "drop-oldest";
+            case CONFLATE:
+                return "conflate";
+            default:
+                return "disconnect";
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * The subscriptions of a reactor to one topic. Adding and removing are O(1), a removed subscription is replaced by the
+ * last one, and the live path iterates the array directly without copying. Only used by the reactor thread.
+ */
+public class SubscriberList {
+
+    private Subscription[] subscriptions = new Subscription[16];
+
+    private int size;
+
+    public void add(Subscription subscription) {
+        if (subscription.getSubscriberIndex() >= 0) {
+            return;
+        }
+        if (this.size == this.subscriptions.length) {
+            Subscription[] grown = new Subscription[this.size << 1];
+            System.arraycopy(this.subscriptions, 0, grown, 0, this.size);
+            this.subscriptions = grown;
+        }
+        subscription.setSubscriberIndex(this.size);
+        this.subscriptions[this.size ++] = subscription;
+    }
+
+    public void remove(Subscription subscription) {
+        int index = subscription.getSubscriberIndex();
+        if (index < 0) {
+            return;
+        }
+        // move the last subscription into the free slot
+        Subscription last = this.subscriptions[-- this.size];
+        this.subscriptions[index] = last;
+        last.setSubscriberIndex(index);
+        this.subscriptions[this.size] = null;
+        subscription.setSubscriberIndex(-1);
+    }
+
+    public Subscription get(int index) {
+        return this.subscriptions[index];
+    }
+
+    public int size() {
+        return this.size;
+    }
+}
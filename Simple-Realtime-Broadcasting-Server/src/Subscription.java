@@ -0,0 +1,144 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The subscription of a session to one topic: REPLAYING -> LIVE -> CLOSING. A live subscription falls back to
+ * REPLAYING if it has missed records. Only used by the reactor thread which owns the session.
+ */
+public class Subscription {
+
+    private final Session session;
+
+    private final TopicFanOut topicFanOut;
+
+    /**
+     * See `SessionState`, a subscription is never CONNECTED
+     */
+    private int state = SessionState.REPLAYING;
+
+    /**
+     * The index of the next record the client has not received yet, valid while the subscription is live
+     */
+    private long nextIndex;
+
+    /**
+     * The slot of this subscription in the subscriber list of its topic, or -1 if it is not in the list
+     */
+    private int subscriberIndex = -1;
+
+    /**
+     * The replay waiting for the replay of another topic of the same session to finish
+     */
+    private long pendingFromIndex;
+
+    private ByteBuffer pendingFirstFrame;
+
+    public Subscription(Session session, TopicFanOut topicFanOut) {
+        this.session = session;
+        this.topicFanOut = topicFanOut;
+    }
+
+    public Session getSession() {
+        return this.session;
+    }
+
+    public TopicFanOut getTopicFanOut() {
+        return this.topicFanOut;
+    }
+
+    public int getTopicId() {
+        return this.topicFanOut.getTopic().getId();
+    }
+
+    public int getState() {
+        return this.state;
+    }
+
+    public long getNextIndex() {
+        return this.nextIndex;
+    }
+
+    public int getSubscriberIndex() {
+        return this.subscriberIndex;
+    }
+
+    public void setSubscriberIndex(int subscriberIndex) {
+        this.subscriberIndex = subscriberIndex;
+    }
+
+    public long getPendingFromIndex() {
+        return this.pendingFromIndex;
+    }
+
+    public ByteBuffer getPendingFirstFrame() {
+        return this.pendingFirstFrame;
+    }
+
+    public void setPendingReplay(long fromIndex, ByteBuffer firstFrame) {
+        this.pendingFromIndex = fromIndex;
+        this.pendingFirstFrame = firstFrame;
+    }
+
+    /**
+     * LIVE -> REPLAYING, or start the first replay of the subscription
+     *
+     * @param firstFrame an optional msg sent before the replayed wire frames
+     */
+    public void startReplay(long fromIndex, ByteBuffer firstFrame) {
+        this.state = SessionState.REPLAYING;
+        this.session.replay(this, fromIndex, firstFrame);
+    }
+
+    /**
+     * REPLAYING -> LIVE once the replay has caught up with the history of the topic
+     */
+    public void replayFinished(long replayedIndex) {
+        if (this.state != SessionState.REPLAYING) {
+            return;
+        }
+        this.state = SessionState.LIVE;
+        this.nextIndex = replayedIndex;
+    }
+
+    /**
+     * Queue a real-time msg. The msg is ignored while replaying, since the replay picks the record up from the history.
+     * If records were missed, the subscription falls back to replaying them.
+     *
+     * @return whether the outbound queue has to be flushed
+     */
+    public boolean offerLive(long index, ByteBuffer frame) {
+        if (this.state != SessionState.LIVE || index < this.nextIndex) {
+            return false;
+        }
+        if (index > this.nextIndex) {
+            // fetch the missed records from the history
+            this.startReplay(this.nextIndex, null);
+            return true;
+        }
+        this.nextIndex = index + 1;
+
+        return this.session.getOutboundQueue().offer(frame, this);
+    }
+
+    /**
+     * Queue a real-time batch of the records in [fromIndex, toIndex), which must directly follow the records the
+     * client has received.
+     *
+     * @return whether the outbound queue has to be flushed
+     */
+    public boolean offerLive(long fromIndex, long toIndex, ByteBuffer batch) {
+        if (this.state != SessionState.LIVE || fromIndex != this.nextIndex) {
+            return false;
+        }
+        this.nextIndex = toIndex;
+
+        return this.session.getOutboundQueue().offer(batch, this);
+    }
+
+    /**
+     * any state -> CLOSING
+     */
+    public void close() {
+        this.state = SessionState.CLOSING;
+        this.pendingFirstFrame = null;
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.File;
+
+/**
+ * A named stream of records with its own history store, hot tail, journal and publisher. The default topic is the
+ * one the data req subscribes to, its msgs do not carry a topic id, so older clients keep working.
+ */
+public class Topic {
+
+    public static final int DEFAULT_TOPIC_ID = 0;
+
+    public static final String DEFAULT_TOPIC_NAME = "default";
+
+    private final int id;
+
+    private final String name;
+
+    private final HistoryStore historyStore;
+
+    private final RecordRing recordRing;
+
+    private final HistoryJournal historyJournal;
+
+    private final DataPublisher dataPublisher;
+
+    /**
+     * @param historyStore the history of the topic, opened with the id of the topic
+     * @param reactors may be filled after the topic is created, but before anything is published
+     */
+    public Topic(int id, String name, HistoryStore historyStore, ServerConfig config, Reactor[] reactors) {
+        this.id = id;
+        this.name = name;
+        this.historyStore = historyStore;
+        // the ring continues the sequence of the store, starting with its most recent records
+        this.recordRing = new RecordRing(config.getRingCapacity(), this.historyStore);
+        this.historyJournal = new HistoryJournal(this.historyStore, this.recordRing, config);
+        this.dataPublisher = new RingPublisher(this.recordRing, this.historyJournal, reactors);
+    }
+
+    /**
+     * The history of the default topic lives in the history directory, the history of any other topic in the
+     * sub-directory named after it
+     */
+    public static String historyDirectoryPath(String historyDirectoryPath, int id, String name) {
+        return id == DEFAULT_TOPIC_ID ? historyDirectoryPath : historyDirectoryPath + File.separator + name;
+    }
+
+    /**
+     * @return whether the name can be used as a topic name, it also names the history directory of the topic
+     */
+    public static boolean isValidName(String name) {
+        return name.matches("[A-Za-z0-9_-]{1,64}");
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public HistoryStore getHistoryStore() {
+        return this.historyStore;
+    }
+
+    public RecordRing getRecordRing() {
+        return this.recordRing;
+    }
+
+    public HistoryJournal getHistoryJournal() {
+        return this.historyJournal;
+    }
+
+    public DataPublisher getDataPublisher() {
+        return this.dataPublisher;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * The fan-out of one topic on one reactor: the subscriptions of the sessions owned by the reactor, the reader serving
+ * their replays, and how far the reactor has forwarded the records of the topic. Only used by the reactor thread.
+ */
+public class TopicFanOut {
+
+    private final Topic topic;
+
+    private final SubscriberList subscriberList = new SubscriberList();
+
+    private final HistoryReader historyReader;
+
+    /**
+     * The sequence of the next record of the topic to be fanned out by the reactor
+     */
+    private long fanOutSequence;
+
+    public TopicFanOut(Topic topic) {
+        this.topic = topic;
+        this.historyReader = new HistoryReader(topic);
+        this.fanOutSequence = topic.getRecordRing().getCursor();
+    }
+
+    public Topic getTopic() {
+        return this.topic;
+    }
+
+    public SubscriberList getSubscriberList() {
+        return this.subscriberList;
+    }
+
+    public HistoryReader getHistoryReader() {
+        return this.historyReader;
+    }
+
+    public long getFanOutSequence() {
+        return this.fanOutSequence;
+    }
+
+    public void setFanOutSequence(long fanOutSequence) {
+        this.fanOutSequence = fanOutSequence;
+    }
+}